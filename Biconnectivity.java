@@ -0,0 +1,30 @@
+package friends;
+
+import java.util.ArrayList;
+
+/**
+ * Result of Friends.biconnectivity: the connectors (articulation points) of a graph, its
+ * bridges, and optionally its biconnected components.
+ */
+public class Biconnectivity {
+
+	/**
+	 * Names of all connectors, in member index order
+	 */
+	public final ArrayList<String> connectors = new ArrayList<String>();
+
+	/**
+	 * All bridges - friendships whose removal disconnects the two friends - as pairs of names
+	 */
+	public final ArrayList<String[]> bridges = new ArrayList<String[]>();
+
+	/**
+	 * Names of the members in each biconnected component (members that are not friends
+	 * with anybody are in no component), or null if components were not asked for
+	 */
+	public final ArrayList<ArrayList<String>> components;
+
+	Biconnectivity(boolean withComponents) {
+		components = withComponents ? new ArrayList<ArrayList<String>>() : null;
+	}
+}
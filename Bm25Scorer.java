@@ -0,0 +1,49 @@
+package lse;
+
+/**
+ * Okapi BM25 scoring. The keyword's frequency saturates as it grows (controlled by k1), and is
+ * normalized by the document's length relative to the average length (controlled by b).
+ */
+public class Bm25Scorer implements Scorer {
+	
+	private final double k1;
+	private final double b;
+	
+	/**
+	 * Creates a BM25 scorer with the usual parameters, k1 = 1.2 and b = 0.75.
+	 */
+	public Bm25Scorer() {
+		this(1.2, 0.75);
+	}
+	
+	/**
+	 * @param k1 Frequency saturation, at least 0 (0 for binary frequencies: every matching
+	 *        document scores the keyword's idf)
+	 * @param b Length normalization, between 0 and 1
+	 */
+	public Bm25Scorer(double k1, double b) {
+		if (!(k1 >= 0) || b < 0 || b > 1)
+			throw new IllegalArgumentException("k1 must be >= 0 and b between 0 and 1");
+		this.k1 = k1;
+		this.b = b;
+	}
+	
+	public double score(int frequency, int documentLength, int documentFrequency, int documentCount, double averageLength) {
+		double norm = k1 * (1 - b + b * documentLength / averageLength);
+		return idf(documentFrequency, documentCount) * frequency * (k1 + 1) / (frequency + norm);
+	}
+	
+	public double upperBound(int maxFrequency, int documentFrequency, int documentCount, double averageLength) {
+		// the score grows with frequency and shrinks with length, so take the highest
+		// frequency, in a document of length 0
+		// rounded up by a few ulps, since the score is computed from other operands and can
+		// round up where the bound rounds down (with k1 = 0, both are idf * f / f)
+		double norm = k1 * (1 - b);
+		double bound = idf(documentFrequency, documentCount) * maxFrequency * (k1 + 1) / (maxFrequency + norm);
+		return bound + 8 * Math.ulp(bound);
+	}
+	
+	private static double idf(int documentFrequency, int documentCount) {
+		return Math.log(1.0 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+	}
+}
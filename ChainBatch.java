@@ -0,0 +1,238 @@
+package friends;
+
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Answers many shortestChain queries together. Queries are grouped by the person the chain
+ * starts from, and a group with many targets is answered from one breadth-first search from
+ * that person, which stops as soon as every target of the group has been reached. A group with
+ * only a few targets is answered with a bidirectional search per target instead, since each of
+ * those reaches far fewer members than a one-sided search. Groups are independent, so they are
+ * split across a fork-join pool.
+ *
+ * Each thread keeps its scratch arrays from one search to the next (single shortestChain calls
+ * use them too), through a soft reference, so that arrays sized for a large graph that is no
+ * longer searched are given back when memory runs short. A member counts as
+ * visited only if its stamp equals the current search's epoch, so starting a new search only
+ * takes incrementing the epoch, not clearing arrays of size n.
+ */
+class ChainBatch {
+
+	/**
+	 * Groups of at most this many are answered directly instead of being split further
+	 */
+	private static final int GROUPS_PER_TASK = 4;
+
+	/**
+	 * Scratch arrays of one thread, for searches forward from a source and backward from a target
+	 */
+	static class Scratch {
+		int[] seenF, seenB;		// epoch of the search that last reached each member
+		int[] prevF, prevB;		// member each member was reached from, in the search that reached it
+		int[] qF, qB;
+		int[] target;			// epoch of the search that last had each member as a target
+		int epoch;
+
+		// what the last bidirectional search did, for instrumentation: members expanded and
+		// reached on each side, and largest frontier
+		int expandedF, expandedB, reachedF, reachedB, frontierPeak;
+
+		// bytes allocated for these arrays and not reported to instrumentation yet
+		long unreportedBytes;
+
+		Scratch(int n) {
+			seenF = new int[n];
+			seenB = new int[n];
+			prevF = new int[n];
+			prevB = new int[n];
+			qF = new int[n];
+			qB = new int[n];
+			target = new int[n];
+			unreportedBytes = 7L * 4 * n;
+		}
+
+		/**
+		 * Starts a new search, clearing the stamps only when the epoch wraps around.
+		 */
+		int nextEpoch() {
+			if (++epoch == 0) {
+				Arrays.fill(seenF, 0);
+				Arrays.fill(seenB, 0);
+				Arrays.fill(target, 0);
+				epoch = 1;
+			}
+			return epoch;
+		}
+	}
+
+	private static final ThreadLocal<SoftReference<Scratch>> scratch = new ThreadLocal<SoftReference<Scratch>>();
+
+	/**
+	 * Returns the calling thread's scratch arrays, making new ones if they are too small or
+	 * have been garbage collected.
+	 *
+	 * @param n Number of members in the graph to be searched
+	 * @return Scratch arrays for at least n members
+	 */
+	static Scratch scratch(int n) {
+		SoftReference<Scratch> ref = scratch.get();
+		Scratch s = ref == null ? null : ref.get();
+		if (s == null || s.seenF.length < n) {
+			s = new Scratch(n);
+			scratch.set(new SoftReference<Scratch>(s));
+		}
+		return s;
+	}
+
+	private final FriendGraph g;
+	private final int[] sources;			// source member of each group
+	private final int[] groupStart;			// queries of group i are order[groupStart[i]] .. order[groupStart[i+1]-1]
+	private final int[] order;				// query indexes, grouped by source
+	private final int[] targets;			// target member of each query, -1 if unknown
+	private final ArrayList<ArrayList<String>> results;
+
+	/**
+	 * Groups with at most this many distinct targets are answered with a bidirectional search
+	 * per target. A one-sided search reaches about all m friendships, while the two sides of a
+	 * bidirectional search in a small-world graph typically meet after about sqrt(m), so the
+	 * one-sided search only pays off for more than about sqrt(m) targets.
+	 */
+	private final int bidirectionalTargets;
+
+	ChainBatch(FriendGraph g, List<String[]> queries) {
+		this.g = g;
+		bidirectionalTargets = Math.max(4, (int) Math.sqrt(g.firstFriend(g.size())));
+		int q = queries.size();
+		targets = new int[q];
+		results = new ArrayList<ArrayList<String>>(Collections.<ArrayList<String>>nCopies(q, null));
+
+		// group the queries by source, with a counting sort over the distinct sources
+		HashMap<Integer,Integer> groupOf = new HashMap<Integer,Integer>();
+		ArrayList<Integer> sourceList = new ArrayList<Integer>();
+		int[] group = new int[q];
+		for (int i = 0; i < q; i++) {
+			String[] pair = queries.get(i);
+			int a = g.index(pair[0]);
+			targets[i] = g.index(pair[1]);
+			if (a == -1 || targets[i] == -1) {
+				group[i] = -1;
+				continue;
+			}
+			Integer grp = groupOf.get(a);
+			if (grp == null) {
+				grp = sourceList.size();
+				groupOf.put(a, grp);
+				sourceList.add(a);
+			}
+			group[i] = grp;
+		}
+		int groups = sourceList.size();
+		sources = new int[groups];
+		groupStart = new int[groups + 1];
+		for (int i = 0; i < groups; i++)
+			sources[i] = sourceList.get(i);
+		for (int i = 0; i < q; i++) {
+			if (group[i] != -1)
+				groupStart[group[i] + 1]++;
+		}
+		for (int i = 0; i < groups; i++)
+			groupStart[i + 1] += groupStart[i];
+		order = new int[groupStart[groups]];
+		int[] next = Arrays.copyOf(groupStart, groups);
+		for (int i = 0; i < q; i++) {
+			if (group[i] != -1)
+				order[next[group[i]]++] = i;
+		}
+	}
+
+	/**
+	 * Answers all queries.
+	 *
+	 * @param pool Pool to run the searches in
+	 * @return Shortest chain of each query, in query order. Null for queries with no chain
+	 */
+	ArrayList<ArrayList<String>> run(ForkJoinPool pool) {
+		if (sources.length > 0)
+			pool.invoke(new Task(0, sources.length));
+		return results;
+	}
+
+	private class Task extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from, to;
+
+		Task(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from <= GROUPS_PER_TASK) {
+				Scratch s = scratch(g.size());
+				for (int grp = from; grp < to; grp++)
+					search(grp, s);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Task(from, mid), new Task(mid, to));
+		}
+	}
+
+	/**
+	 * Answers the queries of one group, with a bidirectional search per query if the group has
+	 * few targets, or else with one breadth-first search from its source.
+	 */
+	private void search(int grp, Scratch s) {
+		int epoch = s.nextEpoch();
+		int src = sources[grp];
+		int remaining = 0;
+		for (int i = groupStart[grp]; i < groupStart[grp+1]; i++) {
+			int t = targets[order[i]];
+			if (s.target[t] != epoch) {
+				s.target[t] = epoch;
+				remaining++;
+			}
+		}
+		if (remaining <= bidirectionalTargets) {
+			// each query writes its own slot of results
+			for (int i = groupStart[grp]; i < groupStart[grp+1]; i++)
+				results.set(order[i], Friends.shortestChain(g, src, targets[order[i]], s));
+			return;
+		}
+
+		int[] seen = s.seenF, prev = s.prevF, queue = s.qF;
+		seen[src] = epoch;
+		prev[src] = src;
+		if (s.target[src] == epoch)
+			remaining--;
+		int head = 0, tail = 0;
+		queue[tail++] = src;
+		while (remaining > 0 && head < tail) {
+			int u = queue[head++];
+			for (int e = g.firstFriend(u), end = g.firstFriend(u+1); e < end; e++) {
+				int v = g.friend(e);
+				if (seen[v] == epoch)
+					continue;
+				seen[v] = epoch;
+				prev[v] = u;
+				queue[tail++] = v;
+				if (s.target[v] == epoch)
+					remaining--;
+			}
+		}
+
+		for (int i = groupStart[grp]; i < groupStart[grp+1]; i++) {
+			int t = targets[order[i]];
+			if (seen[t] != epoch)
+				continue;
+			ArrayList<String> list = new ArrayList<String>();
+			for (int v = t; v != src; v = prev[v])
+				list.add(g.name(v));
+			list.add(g.name(src));
+			Collections.reverse(list);
+			results.set(order[i], list);
+		}
+	}
+}
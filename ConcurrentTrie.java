@@ -0,0 +1,238 @@
+package trie;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compressed trie that many threads can search while others add words to it.
+ *
+ * Nodes are never changed once they are reachable. Adding a word copies the nodes on the path
+ * from the root to where the word goes, shares every other node with the old trie, and then
+ * swaps the new root in with a compare-and-set; if another word got in first, the add starts
+ * over from the new root. Readers take the root once per query and never block or retry, and
+ * whatever they find belongs to the single version of the trie that was current when they
+ * started, so a completion list is a consistent snapshot however many adds happen meanwhile.
+ *
+ * Unlike TrieNode, nodes refer to their words directly rather than to indexes into an array of
+ * words, since the words arrive over time; and a word may be a prefix of another, in which case
+ * it ends at an internal node.
+ */
+public class ConcurrentTrie {
+
+	/**
+	 * Immutable node, standing for the characters start .. end of word
+	 */
+	private static final class Node {
+		final String word;	// a word under this node, or the node's own word if it has one
+		final int start, end;
+		final boolean isWord;	// whether a word ends here
+		final int words;	// number of words under this node, including its own
+		final Node[] children;	// sorted by first character
+
+		Node(String word, int start, int end, boolean isWord, int words, Node[] children) {
+			this.word = word;
+			this.start = start;
+			this.end = end;
+			this.isWord = isWord;
+			this.words = words;
+			this.children = children;
+		}
+
+		char first() {
+			return word.charAt(start);
+		}
+	}
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private final AtomicReference<Node> root = new AtomicReference<Node>(new Node("", 0, -1, false, 0, NO_CHILDREN));
+
+	/**
+	 * Makes an empty trie.
+	 */
+	public ConcurrentTrie() { }
+
+	/**
+	 * Makes a trie holding some words.
+	 *
+	 * @param words Words to add
+	 */
+	public ConcurrentTrie(String[] words) {
+		for (String word : words)
+			add(word);
+	}
+
+	/**
+	 * @return Number of words in the trie
+	 */
+	public int size() {
+		return root.get().words;
+	}
+
+	/**
+	 * Adds a word, unless it is in the trie already.
+	 *
+	 * @param word Word to add
+	 * @return True if the word was added, false if it was in the trie already
+	 */
+	public boolean add(String word) {
+		for (;;) {
+			Node current = root.get();
+			Node updated = add(current, word);
+			if (updated == null)
+				return false;
+			if (root.compareAndSet(current, updated))
+				return true;
+		}
+	}
+
+	/**
+	 * Makes the version of a trie with one more word, copying the nodes on its path.
+	 *
+	 * @return Root of the new version, null if the word is in the trie already
+	 */
+	private static Node add(Node root, String word) {
+		// nodes on the path, and which child of each the path goes through
+		ArrayList<Node> path = new ArrayList<Node>();
+		ArrayList<Integer> through = new ArrayList<Integer>();
+		Node node = root;
+		Node replacement;
+		int pos = 0;
+		for (;;) {
+			if (pos == word.length()) {
+				if (node.isWord)
+					return null;
+				replacement = new Node(word, node.start, node.end, true, node.words + 1, node.children);
+				break;
+			}
+			int c = child(node.children, word.charAt(pos));
+			if (c < 0) {
+				Node leaf = new Node(word, pos, word.length() - 1, true, 1, NO_CHILDREN);
+				replacement = new Node(node.word, node.start, node.end, node.isWord, node.words + 1,
+						insert(node.children, -c - 1, leaf));
+				break;
+			}
+			Node next = node.children[c];
+			int k = pos + 1;
+			while (k <= next.end && k < word.length() && next.word.charAt(k) == word.charAt(k))
+				k++;
+			if (k > next.end) {
+				path.add(node);
+				through.add(c);
+				node = next;
+				pos = k;
+				continue;
+			}
+
+			// the word leaves next's segment at k: split next there
+			Node lower = new Node(next.word, k, next.end, next.isWord, next.words, next.children);
+			Node upper;
+			if (k == word.length())
+				upper = new Node(word, pos, k - 1, true, next.words + 1, new Node[] { lower });
+			else {
+				Node leaf = new Node(word, k, word.length() - 1, true, 1, NO_CHILDREN);
+				upper = new Node(next.word, pos, k - 1, false, next.words + 1, word.charAt(k) < lower.first()
+						? new Node[] { leaf, lower } : new Node[] { lower, leaf });
+			}
+			replacement = new Node(node.word, node.start, node.end, node.isWord, node.words + 1,
+					replace(node.children, c, upper));
+			break;
+		}
+		for (int i = path.size() - 1; i >= 0; i--) {
+			Node parent = path.get(i);
+			replacement = new Node(parent.word, parent.start, parent.end, parent.isWord, parent.words + 1,
+					replace(parent.children, through.get(i), replacement));
+		}
+		return replacement;
+	}
+
+	/**
+	 * @param word Word to look for
+	 * @return True if the word is in the trie
+	 */
+	public boolean contains(String word) {
+		Node node = find(root.get(), word);
+		return node != null && node.isWord && node.end == word.length() - 1;
+	}
+
+	/**
+	 * Returns the words that start with a prefix, as Trie.completionList does, all from the
+	 * same version of the trie.
+	 *
+	 * @param prefix Prefix to be completed with words in trie
+	 * @return All words in trie that start with the prefix, in sorted order. If there is no
+	 *         word in the trie that has this prefix, null is returned.
+	 */
+	public ArrayList<String> completionList(String prefix) {
+		Node node = find(root.get(), prefix);
+		if (node == null || node.words == 0)
+			return null;
+		ArrayList<String> wordsList = new ArrayList<String>(node.words);
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		stack.push(node);
+		while (!stack.isEmpty()) {
+			Node ptr = stack.pop();
+			if (ptr.isWord)
+				wordsList.add(ptr.word);
+			for (int c = ptr.children.length - 1; c >= 0; c--)
+				stack.push(ptr.children[c]);
+		}
+		return wordsList;
+	}
+
+	/**
+	 * Finds the highest node whose word starts with a prefix.
+	 *
+	 * @return The node, null if no word has the prefix
+	 */
+	private static Node find(Node node, String prefix) {
+		int pos = 0;
+		while (pos < prefix.length()) {
+			int c = child(node.children, prefix.charAt(pos));
+			if (c < 0)
+				return null;
+			node = node.children[c];
+			int end = Math.min(node.end, prefix.length() - 1);
+			for (int i = pos + 1; i <= end; i++)
+				if (node.word.charAt(i) != prefix.charAt(i))
+					return null;
+			pos = node.end + 1;
+		}
+		return node;
+	}
+
+	/**
+	 * Binary search of children by first character
+	 *
+	 * @return Position of the child starting with ch, or -(insertion point)-1 if there is none
+	 */
+	private static int child(Node[] children, char ch) {
+		int low = 0, high = children.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			char first = children[mid].first();
+			if (first < ch)
+				low = mid + 1;
+			else if (first > ch)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -low - 1;
+	}
+
+	private static Node[] insert(Node[] children, int at, Node child) {
+		Node[] copy = new Node[children.length + 1];
+		System.arraycopy(children, 0, copy, 0, at);
+		copy[at] = child;
+		System.arraycopy(children, at, copy, at + 1, children.length - at);
+		return copy;
+	}
+
+	private static Node[] replace(Node[] children, int at, Node child) {
+		Node[] copy = children.clone();
+		copy[at] = child;
+		return copy;
+	}
+}
@@ -0,0 +1,171 @@
+package friends;
+
+import java.util.*;
+
+/**
+ * Immutable compressed sparse row (CSR) form of a Graph. The friends of member v are
+ * neighbors[offsets[v]] .. neighbors[offsets[v+1]-1], in the same order as v's Friend list,
+ * so each edge end takes 4 bytes and a member's friends sit next to each other in memory.
+ * Member attributes are kept as columns: names, and an interned school id per member
+ * (-1 for members who are not students).
+ *
+ * The Friends algorithms run on this form (through FriendGraph). The Graph versions convert the
+ * graph with CsrGraph.of, which keeps the converted form of each Graph for as long as the Graph
+ * is in use.
+ */
+public class CsrGraph extends FriendGraph {
+
+	/**
+	 * Start of each member's friends in neighbors, with offsets[n] == neighbors.length
+	 */
+	final int[] offsets;
+
+	/**
+	 * Friend member indexes, grouped by member
+	 */
+	final int[] neighbors;
+
+	/**
+	 * Member names, by member index
+	 */
+	final String[] names;
+
+	/**
+	 * School id of each member, -1 if the member is not a student
+	 */
+	final int[] schools;
+
+	/**
+	 * School names, by school id
+	 */
+	final String[] schoolNames;
+
+	/**
+	 * Member index of each name, and school id of each school name
+	 */
+	final HashMap<String,Integer> map;
+	final HashMap<String,Integer> schoolMap;
+
+	private static final Map<Graph,CsrGraph> converted = Collections.synchronizedMap(new WeakHashMap<Graph,CsrGraph>());
+
+	/**
+	 * Converts a graph. The Graph is not referenced afterwards.
+	 *
+	 * @param g Graph to convert
+	 */
+	public CsrGraph(Graph g) {
+		int n = g.members.length;
+		offsets = new int[n + 1];
+		names = new String[n];
+		schools = new int[n];
+		map = new HashMap<String,Integer>(g.map);
+		schoolMap = new HashMap<String,Integer>();
+		ArrayList<String> schoolList = new ArrayList<String>();
+		int edges = 0;
+		for (int v = 0; v < n; v++) {
+			Person p = g.members[v];
+			names[v] = p.name;
+			if (p.student && p.school != null) {
+				Integer s = schoolMap.get(p.school);
+				if (s == null) {
+					s = schoolList.size();
+					schoolMap.put(p.school, s);
+					schoolList.add(p.school);
+				}
+				schools[v] = s;
+			}
+			else
+				schools[v] = -1;
+			for (Friend fr = p.first; fr != null; fr = fr.next)
+				edges++;
+			offsets[v + 1] = edges;
+		}
+		neighbors = new int[edges];
+		for (int v = 0, e = 0; v < n; v++) {
+			for (Friend fr = g.members[v].first; fr != null; fr = fr.next)
+				neighbors[e++] = fr.fnum;
+		}
+		schoolNames = schoolList.toArray(new String[schoolList.size()]);
+	}
+
+	/**
+	 * Wraps arrays that are already in CSR form. The arrays are not copied.
+	 *
+	 * @param offsets Start of each member's friends in neighbors, with offsets[n] == neighbors.length
+	 * @param neighbors Friend member indexes, grouped by member
+	 * @param names Member names
+	 * @param schools School id of each member, -1 if the member is not a student
+	 * @param schoolNames School names, by school id
+	 */
+	CsrGraph(int[] offsets, int[] neighbors, String[] names, int[] schools, String[] schoolNames) {
+		this.offsets = offsets;
+		this.neighbors = neighbors;
+		this.names = names;
+		this.schools = schools;
+		this.schoolNames = schoolNames;
+		map = new HashMap<String,Integer>(Math.max(16, names.length * 2));
+		for (int v = 0; v < names.length; v++)
+			map.put(names[v], v);
+		schoolMap = new HashMap<String,Integer>();
+		for (int s = 0; s < schoolNames.length; s++)
+			schoolMap.put(schoolNames[s], s);
+	}
+
+	/**
+	 * Returns the CSR form of a graph, converting it the first time it is asked for.
+	 * The graph must not be changed after it is first converted.
+	 *
+	 * @param g Graph
+	 * @return CSR form of the graph
+	 */
+	public static CsrGraph of(Graph g) {
+		CsrGraph csr = converted.get(g);
+		if (csr == null) {
+			csr = new CsrGraph(g);
+			converted.put(g, csr);
+		}
+		return csr;
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public int firstFriend(int v) {
+		return offsets[v];
+	}
+
+	public int friend(int e) {
+		return neighbors[e];
+	}
+
+	public int degree(int v) {
+		return offsets[v + 1] - offsets[v];
+	}
+
+	public String name(int v) {
+		return names[v];
+	}
+
+	public int school(int v) {
+		return schools[v];
+	}
+
+	public int schoolCount() {
+		return schoolNames.length;
+	}
+
+	public String schoolName(int s) {
+		return schoolNames[s];
+	}
+
+	public int index(String name) {
+		Integer v = map.get(name);
+		return v == null ? -1 : v;
+	}
+
+	public int schoolId(String school) {
+		Integer s = schoolMap.get(school);
+		return s == null ? -1 : s;
+	}
+}
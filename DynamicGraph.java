@@ -0,0 +1,928 @@
+package friends;
+
+import java.util.*;
+
+/**
+ * A friendship graph that members and friendships can be added to and removed from, keeping
+ * its connectors and school cliques up to date as it changes instead of finding them again.
+ *
+ * Every friendship is labeled with the biconnected block it is in; a member is a connector
+ * exactly when its friendships are in two or more blocks. Members also carry the label of their
+ * connected component, and students the label of their clique (their component among students
+ * of the same school). Changes only touch the labels around them:
+ * <ul>
+ * <li>A friendship between two components merges them, and is a block by itself. The smaller
+ *     component is relabeled.</li>
+ * <li>A friendship within a component merges the blocks along any chain between its two friends
+ *     (every such chain passes through the same blocks). The chain is found with a
+ *     bidirectional search, and all but the largest of those blocks are relabeled. Nothing is
+ *     searched if the two already share a block.</li>
+ * <li>Removing a friendship that is a block by itself (a bridge) splits its component; two
+ *     interleaved searches from its ends find the smaller side, which is relabeled. Removing
+ *     any other friendship can only split its own block, and the blocks are found again for
+ *     that block alone.</li>
+ * <li>Cliques are merged and split the same way as components, within the school.</li>
+ * </ul>
+ * Most changes cost about the size of what they relabel, but two searches are bounded only by
+ * the size of a component or block, not by the size of the change. The chain search for a
+ * friendship within a component stops when its two sides meet; in the worst case (friends far
+ * apart, or joined only through large parts of the component) it visits the whole component,
+ * even if it then merges only a few small blocks. Likewise the block split after removing a
+ * friendship that is not a bridge searches the whole block it was in.
+ *
+ * Removed members leave their index unused. A DynamicGraph is not thread-safe.
+ * DynamicGraphCheck compares it against the Friends algorithms on random changes.
+ */
+public class DynamicGraph {
+
+	private static final int ANY_SCHOOL = -2;
+
+	/**
+	 * A growable list of ints
+	 */
+	private static class IntList {
+		int[] a = new int[8];
+		int size;
+
+		void add(int x) {
+			if (size == a.length)
+				a = Arrays.copyOf(a, size * 2);
+			a[size++] = x;
+		}
+
+		int pop() {
+			return a[--size];
+		}
+	}
+
+	/**
+	 * Allocates labels, reusing the labels of groups that are gone, and keeps the size of each group
+	 */
+	private static class Labels {
+		int[] size = new int[16];
+		int next;
+		final IntList free = new IntList();
+
+		int create(int sz) {
+			int l;
+			if (free.size > 0)
+				l = free.pop();
+			else {
+				l = next++;
+				if (l == size.length)
+					size = Arrays.copyOf(size, l * 2);
+			}
+			size[l] = sz;
+			return l;
+		}
+
+		void release(int l) {
+			size[l] = 0;
+			free.add(l);
+		}
+	}
+
+	// members; names[v] is null for removed members
+	private String[] names;
+	private int[] schools;
+	private int n;
+	private final HashMap<String,Integer> map = new HashMap<String,Integer>();
+	private final ArrayList<String> schoolNames = new ArrayList<String>();
+	private final HashMap<String,Integer> schoolMap = new HashMap<String,Integer>();
+
+	// friends of v are adj[v][0 .. deg[v]-1], through friendships adjEdge[v][0 .. deg[v]-1]
+	private int[][] adj;
+	private int[][] adjEdge;
+	private int[] deg;
+
+	// block label of each friendship, and friendship ids to reuse
+	private int[] edgeBlock = new int[16];
+	private int edgeIds;
+	private final IntList freeEdges = new IntList();
+	private int edgeCount;
+
+	private int[] comp;
+	private int[] clique;
+	private int[] blockCount;
+	private final Labels comps = new Labels();
+	private final Labels cliques = new Labels();
+	private final Labels blocks = new Labels();
+	private final BitSet cut = new BitSet();
+
+	// students of each school, and each student's position in its list
+	private final ArrayList<IntList> students = new ArrayList<IntList>();
+	private int[] studentPos;
+
+	// scratch for searches: visits are stamped with the search's epoch; blocked members
+	// have their own counter, so that the searches made while they are blocked cannot clear them
+	private int[] stampA, stampB, blocked;
+	private int epoch, blockedMark;
+	private int[] queueA, queueB;
+	private int[] prevA, prevB;
+	private int[] disc, low, parentEdge, pos;
+	private int[] blockStamp = new int[16];
+	private final IntList edgeStack = new IntList();
+	private final IntList touched = new IntList();	// members whose blocks may have changed
+	private int[] chainStart;						// a member of each friendship chainEdges found
+
+	/**
+	 * Copies a graph.
+	 *
+	 * @param g Graph
+	 */
+	public DynamicGraph(Graph g) {
+		this(CsrGraph.of(g));
+	}
+
+	/**
+	 * Copies the CSR form of a graph, and finds its components, cliques and blocks.
+	 *
+	 * @param g Graph
+	 */
+	public DynamicGraph(CsrGraph g) {
+		int size = g.size();
+		allocate(Math.max(16, size));
+		for (int s = 0; s < g.schoolNames.length; s++) {
+			schoolNames.add(g.schoolNames[s]);
+			schoolMap.put(g.schoolNames[s], s);
+			students.add(new IntList());
+		}
+		for (int v = 0; v < size; v++) {
+			names[v] = g.names[v];
+			map.put(g.names[v], v);
+			schools[v] = g.schools[v];
+			comp[v] = clique[v] = -1;
+			if (schools[v] != -1) {
+				IntList list = students.get(schools[v]);
+				studentPos[v] = list.size;
+				list.add(v);
+			}
+			adj[v] = new int[Math.max(2, g.degree(v))];
+			adjEdge[v] = new int[adj[v].length];
+		}
+		n = size;
+		// each friendship appears twice in the CSR arrays; give it an id at its lower member
+		for (int v = 0; v < size; v++) {
+			for (int e = g.offsets[v]; e < g.offsets[v+1]; e++) {
+				int w = g.neighbors[e];
+				if (w > v) {
+					int id = newEdge();
+					addSlot(v, w, id);
+					addSlot(w, v, id);
+				}
+			}
+		}
+
+		// components, with all of a component's friendships in one block to start with;
+		// then find the real blocks of each component
+		for (int v = 0; v < size; v++) {
+			if (comp[v] != -1)
+				continue;
+			int c = comps.create(0);
+			int b = blocks.create(0);
+			int count = label(v, comp, c, ANY_SCHOOL);
+			comps.size[c] = count;
+			for (int i = 0; i < count; i++) {
+				int u = queueA[i];
+				for (int j = 0; j < deg[u]; j++) {
+					if (edgeBlock[adjEdge[u][j]] != b) {
+						edgeBlock[adjEdge[u][j]] = b;
+						blocks.size[b]++;
+					}
+				}
+			}
+			if (blocks.size[b] == 0)
+				blocks.release(b);
+			else
+				splitBlock(v, b);
+			touched.size = 0;
+		}
+		for (int v = 0; v < size; v++) {
+			if (schools[v] != -1 && clique[v] == -1) {
+				int c = cliques.create(0);
+				cliques.size[c] = label(v, clique, c, schools[v]);
+			}
+			recount(v);
+		}
+	}
+
+	private void allocate(int capacity) {
+		names = names == null ? new String[capacity] : Arrays.copyOf(names, capacity);
+		schools = schools == null ? new int[capacity] : Arrays.copyOf(schools, capacity);
+		adj = adj == null ? new int[capacity][] : Arrays.copyOf(adj, capacity);
+		adjEdge = adjEdge == null ? new int[capacity][] : Arrays.copyOf(adjEdge, capacity);
+		deg = deg == null ? new int[capacity] : Arrays.copyOf(deg, capacity);
+		comp = comp == null ? new int[capacity] : Arrays.copyOf(comp, capacity);
+		clique = clique == null ? new int[capacity] : Arrays.copyOf(clique, capacity);
+		blockCount = blockCount == null ? new int[capacity] : Arrays.copyOf(blockCount, capacity);
+		studentPos = studentPos == null ? new int[capacity] : Arrays.copyOf(studentPos, capacity);
+		// stamps of earlier epochs stay valid, since epochs only grow
+		stampA = stampA == null ? new int[capacity] : Arrays.copyOf(stampA, capacity);
+		stampB = stampB == null ? new int[capacity] : Arrays.copyOf(stampB, capacity);
+		blocked = blocked == null ? new int[capacity] : Arrays.copyOf(blocked, capacity);
+		queueA = new int[capacity];
+		queueB = new int[capacity];
+		prevA = new int[capacity];
+		prevB = new int[capacity];
+		disc = new int[capacity];
+		low = new int[capacity];
+		parentEdge = new int[capacity];
+		pos = new int[capacity];
+	}
+
+	private int nextEpoch() {
+		if (++epoch == 0) {
+			Arrays.fill(stampA, 0);
+			Arrays.fill(stampB, 0);
+			Arrays.fill(blockStamp, 0);
+			epoch = 1;
+		}
+		return epoch;
+	}
+
+	private int nextBlockedMark() {
+		if (++blockedMark == 0) {
+			Arrays.fill(blocked, 0);
+			blockedMark = 1;
+		}
+		return blockedMark;
+	}
+
+	private int newEdge() {
+		int id = freeEdges.size > 0 ? freeEdges.pop() : edgeIds++;
+		if (id == edgeBlock.length)
+			edgeBlock = Arrays.copyOf(edgeBlock, id * 2);
+		edgeBlock[id] = -1;
+		edgeCount++;
+		return id;
+	}
+
+	private void addSlot(int v, int w, int id) {
+		if (deg[v] == adj[v].length) {
+			adj[v] = Arrays.copyOf(adj[v], deg[v] * 2);
+			adjEdge[v] = Arrays.copyOf(adjEdge[v], deg[v] * 2);
+		}
+		adj[v][deg[v]] = w;
+		adjEdge[v][deg[v]] = id;
+		deg[v]++;
+	}
+
+	private void removeSlot(int v, int id) {
+		for (int i = 0; i < deg[v]; i++) {
+			if (adjEdge[v][i] == id) {
+				deg[v]--;
+				adj[v][i] = adj[v][deg[v]];
+				adjEdge[v][i] = adjEdge[v][deg[v]];
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return Member index of a name
+	 * @throws IllegalArgumentException If there is no such member
+	 */
+	private int member(String name) {
+		Integer v = map.get(name);
+		if (v == null)
+			throw new IllegalArgumentException("No member named " + name);
+		return v;
+	}
+
+	/**
+	 * Adds a member with no friends.
+	 *
+	 * @param name Name of the member
+	 * @param school School of the member, null if the member is not a student
+	 * @return Member index
+	 * @throws IllegalArgumentException If there already is a member with the name
+	 */
+	public int addMember(String name, String school) {
+		if (map.containsKey(name))
+			throw new IllegalArgumentException("There already is a member named " + name);
+		if (n == names.length)
+			allocate(n * 2);
+		int v = n++;
+		names[v] = name;
+		map.put(name, v);
+		adj[v] = new int[2];
+		adjEdge[v] = new int[2];
+		deg[v] = 0;
+		comp[v] = comps.create(1);
+		blockCount[v] = 0;
+		if (school == null) {
+			schools[v] = clique[v] = -1;
+			return v;
+		}
+		school = school.toLowerCase();
+		Integer s = schoolMap.get(school);
+		if (s == null) {
+			s = schoolNames.size();
+			schoolNames.add(school);
+			schoolMap.put(school, s);
+			students.add(new IntList());
+		}
+		schools[v] = s;
+		clique[v] = cliques.create(1);
+		IntList list = students.get(s);
+		studentPos[v] = list.size;
+		list.add(v);
+		return v;
+	}
+
+	/**
+	 * Removes a member and all the member's friendships.
+	 *
+	 * @param name Name of the member
+	 * @throws IllegalArgumentException If there is no such member
+	 */
+	public void removeMember(String name) {
+		int v = member(name);
+		while (deg[v] > 0)
+			removeFriendship(v, adj[v][deg[v]-1], adjEdge[v][deg[v]-1]);
+		comps.release(comp[v]);
+		comp[v] = -1;
+		if (schools[v] != -1) {
+			cliques.release(clique[v]);
+			clique[v] = -1;
+			IntList list = students.get(schools[v]);
+			int last = list.pop();
+			if (last != v) {
+				list.a[studentPos[v]] = last;
+				studentPos[last] = studentPos[v];
+			}
+			schools[v] = -1;
+		}
+		map.remove(name);
+		names[v] = null;
+	}
+
+	/**
+	 * Makes two members friends.
+	 *
+	 * @param p1 Name of a member
+	 * @param p2 Name of another member
+	 * @return False if they already are friends
+	 * @throws IllegalArgumentException If either is not a member, or both are the same member
+	 */
+	public boolean addFriendship(String p1, String p2) {
+		int u = member(p1), v = member(p2);
+		if (u == v)
+			throw new IllegalArgumentException("A member cannot be friends with themselves");
+		if (edge(u, v) != -1)
+			return false;
+
+		int common = -1;
+		int[] chain = null;
+		if (comp[u] == comp[v]) {
+			// the blocks to merge, found before the friendship is added
+			common = sharedBlock(u, v);
+			if (common == -1)
+				chain = chainEdges(u, v);
+		}
+
+		int id = newEdge();
+		addSlot(u, v, id);
+		addSlot(v, u, id);
+
+		if (schools[u] != -1 && schools[u] == schools[v] && clique[u] != clique[v])
+			merge(u, v, clique, cliques, schools[u]);
+
+		if (comp[u] != comp[v]) {
+			merge(u, v, comp, comps, ANY_SCHOOL);
+			edgeBlock[id] = blocks.create(1);
+			touched.size = 0;
+		}
+		else if (common != -1) {
+			edgeBlock[id] = common;
+			blocks.size[common]++;
+			return true;
+		}
+		else {
+			// merge the blocks on the chain into the largest of them
+			int target = -1;
+			for (int e : chain) {
+				int b = edgeBlock[e];
+				if (target == -1 || blocks.size[b] > blocks.size[target])
+					target = b;
+			}
+			touched.size = 0;
+			for (int i = 0; i < chain.length; i++) {
+				// blocks already merged have the target label by now
+				int b = edgeBlock[chain[i]];
+				if (b != target)
+					relabelBlock(chainStart[i], b, target);
+			}
+			edgeBlock[id] = target;
+			blocks.size[target]++;
+		}
+		recount(u);
+		recount(v);
+		for (int i = 0; i < touched.size; i++)
+			recount(touched.a[i]);
+		return true;
+	}
+
+	/**
+	 * Ends a friendship.
+	 *
+	 * @param p1 Name of a member
+	 * @param p2 Name of another member
+	 * @return False if they are not friends
+	 * @throws IllegalArgumentException If either is not a member
+	 */
+	public boolean removeFriendship(String p1, String p2) {
+		int u = member(p1), v = member(p2);
+		int id = edge(u, v);
+		if (id == -1)
+			return false;
+		removeFriendship(u, v, id);
+		return true;
+	}
+
+	private void removeFriendship(int u, int v, int id) {
+		removeSlot(u, id);
+		removeSlot(v, id);
+		int b = edgeBlock[id];
+		freeEdges.add(id);
+		edgeCount--;
+		blocks.size[b]--;
+
+		if (schools[u] != -1 && schools[u] == schools[v])
+			split(u, v, clique, cliques, schools[u]);
+
+		touched.size = 0;
+		if (blocks.size[b] == 0) {
+			// a bridge
+			blocks.release(b);
+			split(u, v, comp, comps, ANY_SCHOOL);
+		}
+		else if (!stillBiconnected(u, v, b))
+			splitBlock(u, b);
+		recount(u);
+		recount(v);
+		for (int i = 0; i < touched.size; i++)
+			recount(touched.a[i]);
+	}
+
+	/**
+	 * @return Id of the friendship between u and v, -1 if they are not friends
+	 */
+	private int edge(int u, int v) {
+		if (deg[v] < deg[u]) {
+			int t = u;
+			u = v;
+			v = t;
+		}
+		for (int i = 0; i < deg[u]; i++) {
+			if (adj[u][i] == v)
+				return adjEdge[u][i];
+		}
+		return -1;
+	}
+
+	/**
+	 * @return A block both u and v have a friendship in, -1 if there is none
+	 */
+	private int sharedBlock(int u, int v) {
+		int epoch = nextEpoch();
+		for (int i = 0; i < deg[u]; i++) {
+			int b = edgeBlock[adjEdge[u][i]];
+			if (b >= blockStamp.length)
+				blockStamp = Arrays.copyOf(blockStamp, Math.max(b + 1, blockStamp.length * 2));
+			blockStamp[b] = epoch;
+		}
+		for (int i = 0; i < deg[v]; i++) {
+			int b = edgeBlock[adjEdge[v][i]];
+			if (b < blockStamp.length && blockStamp[b] == epoch)
+				return b;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds a shortest chain between two members of the same component, with a bidirectional
+	 * breadth-first search. The search visits about the members within half the chain's length
+	 * of either end, which can be the whole component.
+	 *
+	 * @return Ids of the friendships on the chain; chainStart holds a member of each
+	 */
+	private int[] chainEdges(int a, int b) {
+		int epoch = nextEpoch();
+		int headA = 0, tailA = 1, headB = 0, tailB = 1;
+		queueA[0] = a;
+		queueB[0] = b;
+		stampA[a] = stampB[b] = epoch;
+		prevA[a] = prevB[b] = -1;
+		int meet = -1;
+		while (meet == -1) {
+			boolean forward = tailA - headA <= tailB - headB;
+			int[] q = forward ? queueA : queueB;
+			int[] seen = forward ? stampA : stampB;
+			int[] other = forward ? stampB : stampA;
+			int[] prev = forward ? prevA : prevB;
+			int head = forward ? headA : headB;
+			int tail = forward ? tailA : tailB;
+			int end = tail;
+			level:
+			for (; head < end; head++) {
+				int u = q[head];
+				for (int i = 0; i < deg[u]; i++) {
+					int w = adj[u][i];
+					if (seen[w] == epoch)
+						continue;
+					seen[w] = epoch;
+					prev[w] = adjEdge[u][i];
+					if (other[w] == epoch) {
+						meet = w;
+						break level;
+					}
+					q[tail++] = w;
+				}
+			}
+			if (forward) {
+				headA = head;
+				tailA = tail;
+			}
+			else {
+				headB = head;
+				tailB = tail;
+			}
+		}
+		IntList edges = new IntList();
+		IntList starts = new IntList();
+		for (int side = 0; side < 2; side++) {
+			int[] prev = side == 0 ? prevA : prevB;
+			for (int w = meet; prev[w] != -1; ) {
+				int e = prev[w];
+				edges.add(e);
+				starts.add(w);
+				w = other(w, e);
+			}
+		}
+		chainStart = Arrays.copyOf(starts.a, starts.size);
+		return Arrays.copyOf(edges.a, edges.size);
+	}
+
+	/**
+	 * Checks whether block b is still one block after the friendship between u and v in it
+	 * ended. The blocks the rest of b falls into all lie on one chain of blocks from u to v,
+	 * so b is still one block exactly when u and v are joined by two chains with no member
+	 * in common but u and v. This looks for any chain, then for one avoiding its members; if
+	 * the second search fails, the first chain may just have been a poor choice, so false only
+	 * means that b has to be split with splitBlock, which finds out for sure.
+	 *
+	 * @return True if b is certainly still one block
+	 */
+	private boolean stillBiconnected(int u, int v, int b) {
+		int meet = meet(u, v, b, -1);
+		if (meet == -1)
+			return false;
+		int mark = nextBlockedMark();
+		for (int w = prevA[meet]; w != -1 && w != u; w = prevA[w])
+			blocked[w] = mark;
+		for (int w = meet; w != -1 && w != v; w = prevB[w])
+			blocked[w] = mark;
+		blocked[u] = blocked[v] = 0;
+		return meet(u, v, b, mark) != -1;
+	}
+
+	/**
+	 * Bidirectional breadth-first search between a and z through the friendships of block b,
+	 * avoiding members whose blocked stamp is avoid. prevA and prevB hold the member each
+	 * member was reached from on either side, -1 at a and z.
+	 *
+	 * @return Member where the two sides met, -1 if they did not
+	 */
+	private int meet(int a, int z, int b, int avoid) {
+		int epoch = nextEpoch();
+		int headA = 0, tailA = 1, headB = 0, tailB = 1;
+		queueA[0] = a;
+		queueB[0] = z;
+		stampA[a] = stampB[z] = epoch;
+		prevA[a] = prevB[z] = -1;
+		while (headA < tailA && headB < tailB) {
+			boolean forward = tailA - headA <= tailB - headB;
+			int[] q = forward ? queueA : queueB;
+			int[] seen = forward ? stampA : stampB;
+			int[] other = forward ? stampB : stampA;
+			int[] prev = forward ? prevA : prevB;
+			int head = forward ? headA : headB;
+			int tail = forward ? tailA : tailB;
+			for (int end = tail; head < end; head++) {
+				int x = q[head];
+				for (int i = 0; i < deg[x]; i++) {
+					int w = adj[x][i];
+					if (edgeBlock[adjEdge[x][i]] != b || seen[w] == epoch || blocked[w] == avoid)
+						continue;
+					seen[w] = epoch;
+					prev[w] = x;
+					if (other[w] == epoch)
+						return w;
+					q[tail++] = w;
+				}
+			}
+			if (forward) {
+				headA = head;
+				tailA = tail;
+			}
+			else {
+				headB = head;
+				tailB = tail;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The other end of friendship e of member w
+	 */
+	private int other(int w, int e) {
+		for (int i = 0; i < deg[w]; i++) {
+			if (adjEdge[w][i] == e)
+				return adj[w][i];
+		}
+		throw new IllegalStateException("Friendship " + e + " is not a friendship of " + names[w]);
+	}
+
+	/**
+	 * Gives all members reachable from start through members whose label is the same as
+	 * start's (and of the given school) a new label.
+	 *
+	 * @return Number of members relabeled; they are queueA[0 .. count-1]
+	 */
+	private int label(int start, int[] labels, int newLabel, int school) {
+		int old = labels[start];
+		labels[start] = newLabel;
+		int head = 0, tail = 0;
+		queueA[tail++] = start;
+		while (head < tail) {
+			int u = queueA[head++];
+			for (int i = 0; i < deg[u]; i++) {
+				int w = adj[u][i];
+				if (labels[w] == old && (school == ANY_SCHOOL || schools[w] == school)) {
+					labels[w] = newLabel;
+					queueA[tail++] = w;
+				}
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * Merges the groups of u and v, which are now friends, by relabeling the smaller one.
+	 */
+	private void merge(int u, int v, int[] labels, Labels groups, int school) {
+		int lu = labels[u], lv = labels[v];
+		if (groups.size[lu] < groups.size[lv]) {
+			int t = u;
+			u = v;
+			v = t;
+			t = lu;
+			lu = lv;
+			lv = t;
+		}
+		// v's group is the smaller one
+		groups.size[lu] += groups.size[lv];
+		label(v, labels, lu, school);
+		groups.release(lv);
+	}
+
+	/**
+	 * Checks whether u and v, which were in the same group, still are after their friendship
+	 * ended. Searches from both alternately, a member at a time, until the searches meet or one
+	 * runs out; a search that runs out has found all of a new, smaller group, which is relabeled.
+	 */
+	private void split(int u, int v, int[] labels, Labels groups, int school) {
+		int epoch = nextEpoch();
+		int l = labels[u];
+		int headA = 0, tailA = 1, headB = 0, tailB = 1;
+		queueA[0] = u;
+		queueB[0] = v;
+		stampA[u] = stampB[v] = epoch;
+		while (headA < tailA && headB < tailB) {
+			boolean forward = tailA - headA <= tailB - headB;
+			int[] q = forward ? queueA : queueB;
+			int[] seen = forward ? stampA : stampB;
+			int[] other = forward ? stampB : stampA;
+			int x = q[forward ? headA++ : headB++];
+			int tail = forward ? tailA : tailB;
+			for (int i = 0; i < deg[x]; i++) {
+				int w = adj[x][i];
+				if (labels[w] != l || (school != ANY_SCHOOL && schools[w] != school) || seen[w] == epoch)
+					continue;
+				if (other[w] == epoch)
+					return;
+				seen[w] = epoch;
+				q[tail++] = w;
+			}
+			if (forward)
+				tailA = tail;
+			else
+				tailB = tail;
+		}
+		int[] q = headA == tailA ? queueA : queueB;
+		int count = headA == tailA ? tailA : tailB;
+		int nl = groups.create(count);
+		groups.size[l] -= count;
+		for (int i = 0; i < count; i++)
+			labels[q[i]] = nl;
+	}
+
+	/**
+	 * Moves all friendships of block from to block to, walking the block from a member in it.
+	 * The members walked are added to touched.
+	 */
+	private void relabelBlock(int start, int from, int to) {
+		int epoch = nextEpoch();
+		int head = 0, tail = 0;
+		queueB[tail++] = start;
+		stampB[start] = epoch;
+		while (head < tail) {
+			int u = queueB[head++];
+			touched.add(u);
+			for (int i = 0; i < deg[u]; i++) {
+				int e = adjEdge[u][i];
+				if (edgeBlock[e] != from)
+					continue;
+				edgeBlock[e] = to;
+				int w = adj[u][i];
+				if (stampB[w] != epoch) {
+					stampB[w] = epoch;
+					queueB[tail++] = w;
+				}
+			}
+		}
+		blocks.size[to] += blocks.size[from];
+		blocks.release(from);
+	}
+
+	/**
+	 * Finds the blocks of the friendships labeled b, which are connected and reachable from
+	 * start, with an iterative Hopcroft-Tarjan search, and gives each a new label. The members
+	 * of the old block are added to touched.
+	 */
+	private void splitBlock(int start, int b) {
+		int epoch = nextEpoch();
+		int count = 0;
+		int top = 0;
+		int[] stk = queueA;
+		stk[top++] = start;
+		stampA[start] = epoch;
+		disc[start] = low[start] = count++;
+		parentEdge[start] = -1;
+		pos[start] = 0;
+		touched.add(start);
+		edgeStack.size = 0;
+		while (top > 0) {
+			int u = stk[top-1];
+			if (pos[u] < deg[u]) {
+				int i = pos[u]++;
+				int e = adjEdge[u][i];
+				if (edgeBlock[e] != b || e == parentEdge[u])
+					continue;
+				int w = adj[u][i];
+				if (stampA[w] != epoch) {
+					stampA[w] = epoch;
+					disc[w] = low[w] = count++;
+					parentEdge[w] = e;
+					pos[w] = 0;
+					stk[top++] = w;
+					touched.add(w);
+					edgeStack.add(e);
+				}
+				else if (disc[w] < disc[u]) {
+					low[u] = Math.min(low[u], disc[w]);
+					edgeStack.add(e);
+				}
+				continue;
+			}
+			top--;
+			if (top == 0)
+				break;
+			int p = stk[top-1];
+			low[p] = Math.min(low[p], low[u]);
+			if (low[u] >= disc[p]) {
+				// the friendships above u's tree friendship on the stack form a block
+				int nb = blocks.create(0);
+				int e;
+				do {
+					e = edgeStack.pop();
+					edgeBlock[e] = nb;
+					blocks.size[nb]++;
+				} while (e != parentEdge[u]);
+			}
+		}
+		blocks.release(b);
+	}
+
+	/**
+	 * Counts the blocks member v has friendships in, and updates whether v is a connector.
+	 */
+	private void recount(int v) {
+		int epoch = nextEpoch();
+		int count = 0;
+		for (int i = 0; i < deg[v]; i++) {
+			int b = edgeBlock[adjEdge[v][i]];
+			if (b >= blockStamp.length)
+				blockStamp = Arrays.copyOf(blockStamp, Math.max(b + 1, blockStamp.length * 2));
+			if (blockStamp[b] != epoch) {
+				blockStamp[b] = epoch;
+				count++;
+			}
+		}
+		blockCount[v] = count;
+		cut.set(v, count >= 2);
+	}
+
+	/**
+	 * @return Names of all connectors, in member index order
+	 */
+	public ArrayList<String> connectors() {
+		ArrayList<String> result = new ArrayList<String>(cut.cardinality());
+		for (int v = cut.nextSetBit(0); v >= 0; v = cut.nextSetBit(v + 1))
+			result.add(names[v]);
+		return result;
+	}
+
+	/**
+	 * @param name Name of a member
+	 * @return True if the member is a connector
+	 * @throws IllegalArgumentException If there is no such member
+	 */
+	public boolean isConnector(String name) {
+		return cut.get(member(name));
+	}
+
+	/**
+	 * Returns the cliques of students in a school, in order of their first member, with the
+	 * members of each clique in member index order.
+	 *
+	 * @param school Name of school
+	 * @return Array list of clique array lists. Empty array list if there is no student in the
+	 *         given school
+	 */
+	public ArrayList<ArrayList<String>> cliques(String school) {
+		ArrayList<ArrayList<String>> cliqs = new ArrayList<ArrayList<String>>();
+		Integer s = schoolMap.get(school.toLowerCase());
+		if (s == null)
+			return cliqs;
+		IntList list = students.get(s);
+		int[] members = Arrays.copyOf(list.a, list.size);
+		Arrays.sort(members);
+		HashMap<Integer,ArrayList<String>> byLabel = new HashMap<Integer,ArrayList<String>>();
+		for (int v : members) {
+			ArrayList<String> temp = byLabel.get(clique[v]);
+			if (temp == null) {
+				temp = new ArrayList<String>(cliques.size[clique[v]]);
+				byLabel.put(clique[v], temp);
+				cliqs.add(temp);
+			}
+			temp.add(names[v]);
+		}
+		return cliqs;
+	}
+
+	/**
+	 * @return Number of members
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * @return Number of friendships
+	 */
+	public int friendships() {
+		return edgeCount;
+	}
+
+	/**
+	 * Copies the current graph to CSR form, for the Friends algorithms. Members keep their
+	 * order, with removed members left out.
+	 *
+	 * @return CSR form of the graph
+	 */
+	public CsrGraph toCsrGraph() {
+		int[] index = new int[n];
+		int live = 0;
+		for (int v = 0; v < n; v++)
+			index[v] = names[v] == null ? -1 : live++;
+		int[] offsets = new int[live + 1];
+		String[] memberNames = new String[live];
+		int[] memberSchools = new int[live];
+		int[] neighbors = new int[edgeCount * 2];
+		int e = 0;
+		for (int v = 0; v < n; v++) {
+			if (index[v] == -1)
+				continue;
+			memberNames[index[v]] = names[v];
+			memberSchools[index[v]] = schools[v];
+			for (int i = 0; i < deg[v]; i++)
+				neighbors[e++] = index[adj[v][i]];
+			offsets[index[v] + 1] = e;
+		}
+		return new CsrGraph(offsets, neighbors, memberNames, memberSchools,
+				schoolNames.toArray(new String[schoolNames.size()]));
+	}
+}
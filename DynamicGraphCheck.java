@@ -0,0 +1,146 @@
+package friends;
+
+import java.util.*;
+
+/**
+ * Randomized check of DynamicGraph against the Friends algorithms. A random graph is changed by
+ * a random mix of friendships and members added and removed, and after every change the
+ * connectors and the cliques of every school kept by the DynamicGraph are compared with the
+ * ones Friends finds from scratch on toCsrGraph(). Changes are generated from a fixed seed, so
+ * a failing run can be repeated.
+ *
+ * Usage:
+ * <pre>
+ *     java friends.DynamicGraphCheck [members [changes [seed]]]
+ * </pre>
+ * Defaults are 200 members, 20000 changes and seed 1. The first mismatch is printed, with the
+ * change that caused it, and the check exits with status 1; otherwise the number of changes
+ * checked is printed.
+ */
+public class DynamicGraphCheck {
+
+	private static final String[] SCHOOLS = { "rutgers", "penn", "cornell" };
+
+	/**
+	 * Makes a random graph of small clusters joined by a few friendships, so that it has both
+	 * bridges and blocks of several friendships. About half the members are students.
+	 */
+	static CsrGraph randomGraph(int members, Random random) {
+		String[] names = new String[members];
+		int[] schools = new int[members];
+		ArrayList<HashSet<Integer>> friends = new ArrayList<HashSet<Integer>>(members);
+		for (int v = 0; v < members; v++) {
+			names[v] = "p" + v;
+			schools[v] = random.nextBoolean() ? random.nextInt(SCHOOLS.length) : -1;
+			friends.add(new HashSet<Integer>());
+		}
+		for (int v = 1; v < members; v++) {
+			// a friend among the last few members, and sometimes one more anywhere
+			int w = Math.max(0, v - 1 - random.nextInt(8));
+			friends.get(v).add(w);
+			friends.get(w).add(v);
+			if (random.nextInt(4) == 0) {
+				w = random.nextInt(v);
+				friends.get(v).add(w);
+				friends.get(w).add(v);
+			}
+		}
+		int[] offsets = new int[members + 1];
+		for (int v = 0; v < members; v++)
+			offsets[v + 1] = offsets[v] + friends.get(v).size();
+		int[] neighbors = new int[offsets[members]];
+		for (int v = 0; v < members; v++) {
+			int e = offsets[v];
+			for (int w : friends.get(v))
+				neighbors[e++] = w;
+		}
+		return new CsrGraph(offsets, neighbors, names, schools, SCHOOLS.clone());
+	}
+
+	/**
+	 * Compares the connectors and cliques of a DynamicGraph with the ones Friends finds.
+	 *
+	 * @return Description of the first difference, null if there is none
+	 */
+	static String compare(DynamicGraph g) {
+		CsrGraph csr = g.toCsrGraph();
+		HashSet<String> expected = new HashSet<String>(Friends.connectors(csr));
+		HashSet<String> actual = new HashSet<String>(g.connectors());
+		if (!actual.equals(expected))
+			return "connectors " + actual + ", expected " + expected;
+		for (String school : SCHOOLS) {
+			HashSet<HashSet<String>> expectedCliques = cliqueSets(Friends.cliques(csr, school));
+			HashSet<HashSet<String>> actualCliques = cliqueSets(g.cliques(school));
+			if (!actualCliques.equals(expectedCliques))
+				return "cliques of " + school + " " + actualCliques + ", expected " + expectedCliques;
+		}
+		return null;
+	}
+
+	private static HashSet<HashSet<String>> cliqueSets(ArrayList<ArrayList<String>> cliques) {
+		HashSet<HashSet<String>> sets = new HashSet<HashSet<String>>();
+		for (ArrayList<String> clique : cliques)
+			sets.add(new HashSet<String>(clique));
+		return sets;
+	}
+
+	public static void main(String[] args) {
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int changes = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+		Random random = new Random(seed);
+
+		CsrGraph start = randomGraph(members, random);
+		DynamicGraph g = new DynamicGraph(start);
+		ArrayList<String> names = new ArrayList<String>(Arrays.asList(start.names));
+		String problem = compare(g);
+		if (problem != null) {
+			System.out.println("initial graph: " + problem);
+			System.exit(1);
+		}
+		int added = 0;
+		for (int c = 1; c <= changes; c++) {
+			String change = null;
+			int kind = random.nextInt(10);
+			if (kind < 5) {
+				String a = names.get(random.nextInt(names.size()));
+				String b = names.get(random.nextInt(names.size()));
+				if (!a.equals(b)) {
+					g.addFriendship(a, b);
+					change = "add friendship " + a + " - " + b;
+				}
+			}
+			else if (kind < 8) {
+				CsrGraph csr = g.toCsrGraph();
+				String a = names.get(random.nextInt(names.size()));
+				int v = csr.index(a);
+				if (csr.degree(v) > 0) {
+					String b = csr.name(csr.friend(csr.firstFriend(v) + random.nextInt(csr.degree(v))));
+					g.removeFriendship(a, b);
+					change = "remove friendship " + a + " - " + b;
+				}
+			}
+			else if (kind < 9) {
+				String a = "q" + added++;
+				String school = random.nextBoolean() ? SCHOOLS[random.nextInt(SCHOOLS.length)] : null;
+				g.addMember(a, school);
+				names.add(a);
+				change = "add member " + a + (school == null ? "" : " at " + school);
+			}
+			else if (names.size() > 2) {
+				String a = names.remove(random.nextInt(names.size()));
+				g.removeMember(a);
+				change = "remove member " + a;
+			}
+			if (change == null)
+				continue;
+			problem = compare(g);
+			if (problem != null) {
+				System.out.println("change " + c + " (" + change + "): " + problem);
+				System.exit(1);
+			}
+		}
+		System.out.println(changes + " changes checked, " + g.size() + " members, " + g.friendships()
+				+ " friendships, " + g.connectors().size() + " connectors");
+	}
+}
@@ -0,0 +1,102 @@
+package friends;
+
+/**
+ * Read-only view of a friendship graph in CSR form, which the Friends algorithms traverse.
+ * Members are numbered 0 .. size()-1; the friends of member v are friend(e) for e from
+ * firstFriend(v) to firstFriend(v+1)-1. CsrGraph keeps the graph in heap arrays, and
+ * MappedGraph in a memory-mapped file.
+ */
+public abstract class FriendGraph {
+
+	/**
+	 * Cliques of all schools, found the first time they are asked for
+	 */
+	private volatile SchoolComponents schoolComponents;
+
+	/**
+	 * @return Number of members
+	 */
+	public abstract int size();
+
+	/**
+	 * @param v Member index, or size() for the total
+	 * @return Position of the member's first friend, which is also the number of friend
+	 *         entries of all members before it
+	 */
+	public abstract int firstFriend(int v);
+
+	/**
+	 * @param e Position of a friend entry
+	 * @return Member index of the friend
+	 */
+	public abstract int friend(int e);
+
+	/**
+	 * @param v Member index
+	 * @return Member name
+	 */
+	public abstract String name(int v);
+
+	/**
+	 * @param v Member index
+	 * @return School id of the member, -1 if the member is not a student
+	 */
+	public abstract int school(int v);
+
+	/**
+	 * @return Number of schools
+	 */
+	public abstract int schoolCount();
+
+	/**
+	 * @param s School id
+	 * @return School name
+	 */
+	public abstract String schoolName(int s);
+
+	/**
+	 * @param name Member name
+	 * @return Member index, -1 if there is no such member
+	 */
+	public abstract int index(String name);
+
+	/**
+	 * @param school School name
+	 * @return School id, -1 if no student goes to the school
+	 */
+	public abstract int schoolId(String school);
+
+	/**
+	 * @param v Member index
+	 * @return Number of friends of the member
+	 */
+	public int degree(int v) {
+		return firstFriend(v + 1) - firstFriend(v);
+	}
+
+	/**
+	 * Returns the cliques of all schools, finding them the first time they are asked for.
+	 *
+	 * @return Cliques of all schools
+	 */
+	public SchoolComponents schoolComponents() {
+		SchoolComponents sc = schoolComponents;
+		if (sc == null) {
+			synchronized (this) {
+				sc = schoolComponents;
+				if (sc == null) {
+					sc = new SchoolComponents(this);
+					schoolComponents = sc;
+				}
+			}
+		}
+		return sc;
+	}
+
+	/**
+	 * @return True if the cliques of all schools have been found already
+	 */
+	boolean hasSchoolComponents() {
+		return schoolComponents != null;
+	}
+}
@@ -1,12 +1,34 @@
 package friends;
 
 import java.util.ArrayList;
-
-import structures.Queue;
-import structures.Stack;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class Friends {
 
+	/**
+	 * Sink that instrumented calls report to, null if instrumentation is off
+	 */
+	private static volatile MetricsSink metrics;
+	
+	/**
+	 * Turns instrumentation of shortestChain, cliques and connectors (and biconnectivity) on or
+	 * off. While it is off, the calls only pay for reading this setting.
+	 * 
+	 * @param sink Sink to report every call to, null to turn instrumentation off
+	 */
+	public static void setMetricsSink(MetricsSink sink) {
+		metrics = sink;
+	}
+	
+	/**
+	 * @return Sink that calls are reported to, null if instrumentation is off
+	 */
+	public static MetricsSink getMetricsSink() {
+		return metrics;
+	}
+
 	/**
 	 * Finds the shortest chain of people from p1 to p2.
 	 * Chain is returned as a sequence of names starting with p1,
@@ -20,56 +42,169 @@ public class Friends {
 	 *         path from p1 to p2
 	 */
 	public static ArrayList<String> shortestChain(Graph g, String p1, String p2) {
-		if (g == null || !g.map.containsKey(p1) || !g.map.containsKey(p2)) 
+		if (g == null)
 			return null;
-		boolean[] visited = new boolean[g.members.length];
-		for (int i = 0; i < visited.length; i++) 
-			visited[i] = false;
-		int temp = g.map.get(p1);
-		visited[temp] = true;
-		Queue <Person> q = new Queue<Person>();
-		q.enqueue(g.members[temp]);
-		Person start = g.members[g.map.get(p1)];
-		Person target = g.members[g.map.get(p2)];
-		Person front = start;
-		boolean found = false;
-		int[] paths = new int[g.members.length];
-		while (!q.isEmpty()) {
-			front = q.dequeue();
-			if (front.name.equals(p2)) {
-				found = true;
-				break;
-			}
-			else {
-				Friend fr = front.first;
-				while (fr != null) {
-					if (visited[fr.fnum] == false) {
-						paths[fr.fnum] = g.map.get(front.name); 
-						visited[fr.fnum] = true; 
-						q.enqueue(g.members[fr.fnum]);
+		return shortestChain(CsrGraph.of(g), p1, p2);
+	}
+	
+	/**
+	 * Finds the shortest chain of people from p1 to p2, in the CSR form of a graph.
+	 * See shortestChain(Graph,String,String).
+	 * 
+	 * @param g Graph for which shortest chain is to be found.
+	 * @param p1 Person with whom the chain originates
+	 * @param p2 Person at whom the chain terminates
+	 * @return The shortest chain from p1 to p2. Null if there is no path from p1 to p2
+	 */
+	public static ArrayList<String> shortestChain(FriendGraph g, String p1, String p2) {
+		if (g == null)
+			return null;
+		int a = g.index(p1);
+		int b = g.index(p2);
+		if (a == -1 || b == -1)
+			return null;
+		MetricsSink sink = metrics;
+		if (sink == null)
+			return shortestChain(g, a, b, ChainBatch.scratch(g.size()));
+		
+		long start = System.nanoTime();
+		ChainBatch.Scratch s = ChainBatch.scratch(g.size());
+		ArrayList<String> chain = shortestChain(g, a, b, s);
+		long nanos = System.nanoTime() - start;
+		long edges = 0;
+		for (int i = 0; i < s.expandedF; i++)
+			edges += g.degree(s.qF[i]);
+		for (int i = 0; i < s.expandedB; i++)
+			edges += g.degree(s.qB[i]);
+		sink.record("shortestChain", p1 + " -> " + p2, nanos, s.reachedF + s.reachedB, edges, s.frontierPeak,
+				s.unreportedBytes);
+		s.unreportedBytes = 0;
+		return chain;
+	}
+	
+	/**
+	 * Finds the shortest chain between two members, using the given scratch arrays. Members
+	 * count as reached only if stamped with the search's epoch, so the arrays are not cleared
+	 * between searches.
+	 * 
+	 * @param g Graph for which shortest chain is to be found.
+	 * @param a Member index of the person with whom the chain originates
+	 * @param b Member index of the person at whom the chain terminates
+	 * @param s Scratch arrays for at least g.size() members
+	 * @return The shortest chain from a to b. Null if there is no path from a to b
+	 */
+	static ArrayList<String> shortestChain(FriendGraph g, int a, int b, ChainBatch.Scratch s) {
+		ArrayList<String> list = new ArrayList<String>();
+		if (a == b) {
+			s.expandedF = s.expandedB = 0;
+			s.reachedF = s.frontierPeak = 1;
+			s.reachedB = 0;
+			list.add(g.name(b));
+			return list;
+		}
+		
+		// Bidirectional BFS, a whole level at a time, always from the side with the smaller
+		// frontier. Each side's queue holds the nodes it has reached, and its current frontier
+		// is the range of the queue from head to tail. prev is the node each was reached from,
+		// valid for the nodes whose seen stamp is the current epoch.
+		int epoch = s.nextEpoch();
+		int[] prevF = s.prevF, prevB = s.prevB;
+		int[] seenF = s.seenF, seenB = s.seenB;
+		int[] qF = s.qF, qB = s.qB;
+		int headF = 0, tailF = 1, headB = 0, tailB = 1;
+		qF[0] = a;
+		qB[0] = b;
+		seenF[a] = seenB[b] = epoch;
+		prevF[a] = a;
+		prevB[b] = b;
+		int meet = -1;
+		int peak = 1;
+		while (meet == -1 && headF < tailF && headB < tailB) {
+			boolean forward = tailF - headF <= tailB - headB;
+			peak = Math.max(peak, forward ? tailF - headF : tailB - headB);
+			int[] q = forward ? qF : qB;
+			int[] prev = forward ? prevF : prevB;
+			int[] seen = forward ? seenF : seenB;
+			int[] other = forward ? seenB : seenF;
+			int head = forward ? headF : headB;
+			int tail = forward ? tailF : tailB;
+			int end = tail;
+			level:
+			for (; head < end; head++) {
+				int u = q[head];
+				for (int e = g.firstFriend(u), last = g.firstFriend(u+1); e < last; e++) {
+					int v = g.friend(e);
+					if (seen[v] == epoch)
+						continue;
+					seen[v] = epoch;
+					prev[v] = u;
+					if (other[v] == epoch) {
+						// the sides have met: the visited sets were disjoint before this level,
+						// so every meeting on this level gives a shortest chain
+						meet = v;
+						break level;
 					}
-					fr = fr.next;
+					q[tail++] = v;
 				}
 			}
-		}
-		if (found) {
-			ArrayList<String> list = new ArrayList<String>();
-			int b = g.map.get(p2);
-			int a = g.map.get(p1);
-			if (b == a) {
-				list.add(p2);
-				return list;
+			if (forward) {
+				headF = head;
+				tailF = tail;
 			}
 			else {
-				list.add(g.members[b].name);
+				headB = head;
+				tailB = tail;
 			}
-			while (b != a) {
-				b = paths[b];
-				list.add(0, g.members[b].name);
-			}
-			return list;
 		}
-		return null;
+		s.expandedF = headF;
+		s.expandedB = headB;
+		s.reachedF = tailF;
+		s.reachedB = tailB;
+		s.frontierPeak = peak;
+		if (meet == -1)
+			return null;
+		
+		// walk back from the meeting node to a, then on from it to b
+		for (int v = meet; v != a; v = prevF[v]) 
+			list.add(g.name(v));
+		list.add(g.name(a));
+		Collections.reverse(list);
+		for (int v = meet; v != b; ) {
+			v = prevB[v];
+			list.add(g.name(v));
+		}
+		return list;
+	}
+	
+	/**
+	 * Finds the shortest chains for many pairs of people at once. See
+	 * shortestChains(FriendGraph,List,ForkJoinPool).
+	 * 
+	 * @param g Graph for which shortest chains are to be found.
+	 * @param pairs Pairs of people, each as { p1, p2 }
+	 * @return The shortest chain of each pair, in order. Null for pairs with no chain
+	 */
+	public static ArrayList<ArrayList<String>> shortestChains(Graph g, List<String[]> pairs) {
+		if (g == null)
+			return null;
+		return shortestChains(CsrGraph.of(g), pairs, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Finds the shortest chains for many pairs of people at once, in the CSR form of a graph.
+	 * Pairs are grouped by the person the chain starts from, and all chains of a group come
+	 * from one breadth-first search; the groups are searched in parallel in the given pool.
+	 * This is much cheaper than calling shortestChain for each pair when pairs share people.
+	 * 
+	 * @param g Graph for which shortest chains are to be found.
+	 * @param pairs Pairs of people, each as { p1, p2 }
+	 * @param pool Pool to search in
+	 * @return The shortest chain of each pair, in order. Null for pairs with no chain
+	 */
+	public static ArrayList<ArrayList<String>> shortestChains(FriendGraph g, List<String[]> pairs, ForkJoinPool pool) {
+		if (g == null)
+			return null;
+		return new ChainBatch(g, pairs).run(pool);
 	}
 	
 	/**
@@ -86,41 +221,44 @@ public class Friends {
 	public static ArrayList<ArrayList<String>> cliques(Graph g, String school) {
 		if (g == null)
 			return null;
-		school = school.toLowerCase();
-		ArrayList<ArrayList<String>> cliqs = new ArrayList<ArrayList<String>>();
-		ArrayList<String> temp = new ArrayList<String>();
-		Person p = null;
-		boolean[] visited = new boolean[g.members.length];
-		Stack<Person> stk = new Stack<Person>();
-		for (int i = 0; i < g.members.length; i ++) {
-			p = g.members[i];
-			if (p.student && p.school.equals(school))
-				stk = dfs(g, p, stk, visited, school);
-			if (!stk.isEmpty()) {
-				while (!stk.isEmpty()) 
-					temp.add(stk.pop().name);
-				cliqs.add(temp);
-				temp = new ArrayList<String>();
-			}
-		}
-		return cliqs;
+		return cliques(CsrGraph.of(g), school);
 	}
 	
-	private static Stack<Person> dfs(Graph g, Person p, Stack<Person> stk, boolean[] visited, String school){
-		if (visited[g.map.get(p.name)]) 
-			return stk;
-		Person temp = null;
-		if (p.student && p.school.equals(school)) {
-			if (visited[g.map.get(p.name)] == false) {
-				visited[g.map.get(p.name)] = true;
-				for (Friend fr = p.first; fr != null; fr = fr.next) {
-					temp = g.members[fr.fnum];
-					dfs(g, temp, stk, visited, school);
-				}
-				stk.push(p);
-			}
+	/**
+	 * Finds all cliques of students in a given school, in the CSR form of a graph.
+	 * See cliques(Graph,String). The cliques of all schools are found together the first
+	 * time any school is asked for (see SchoolComponents), so later calls only copy out
+	 * the names. Cliques are in order of their first member, and members of a clique in
+	 * member order.
+	 * 
+	 * @param g Graph for which cliques are to be found.
+	 * @param school Name of school
+	 * @return Array list of clique array lists. Empty array list if there is no student in the
+	 *         given school
+	 */
+	public static ArrayList<ArrayList<String>> cliques(FriendGraph g, String school) {
+		if (g == null)
+			return null;
+		MetricsSink sink = metrics;
+		if (sink == null)
+			return g.schoolComponents().cliques(school);
+		
+		// the first call finds the cliques of all schools
+		long start = System.nanoTime();
+		boolean found = g.hasSchoolComponents();
+		SchoolComponents sc = g.schoolComponents();
+		ArrayList<ArrayList<String>> cliqs = sc.cliques(school);
+		long nanos = System.nanoTime() - start;
+		if (found) {
+			int students = 0;
+			for (ArrayList<String> cliq : cliqs)
+				students += cliq.size();
+			sink.record("cliques", school, nanos, students, 0, 0, 0);
 		}
-		return stk;
+		else
+			sink.record("cliques", school, nanos, g.size(), g.firstFriend(g.size()), 0, 4L * (sc.schoolStart.length
+					+ sc.cliqueStart.length + sc.members.length + sc.clique.length + g.size()));
+		return cliqs;
 	}
 	
 	
@@ -133,45 +271,168 @@ public class Friends {
 	public static ArrayList<String> connectors(Graph g) {
 		if (g == null || g.members == null)
 			return null;
-		ArrayList<String> con = new ArrayList<String>();
-	    int count = 0;
-	    int n = g.members.length;
-        int[] lo = new int[n];
-        int[] prev = new int[n];
-        boolean[] cons = new boolean[n];
-        for (int v = 0; v < n; v++)
-            lo[v] = -1;
-        for (int v = 0; v < n; v++)
-            prev[v] = -1;        
-        for (int v = 0; v < n; v++) {
-            if (prev[v] == -1)
-                cons = dfs(g, v, v, prev, lo, count, cons);
-        }
-	    for (int i = 0; i < n; i++) {
-	    	if (cons[i]) 
-	    		con.add(g.members[i].name);
-	    }
-		return con;
+		return connectors(CsrGraph.of(g));
+	}
+	
+	/**
+	 * Finds and returns all connectors in the CSR form of a graph.
+	 * 
+	 * @param g Graph for which connectors needs to be found.
+	 * @return Names of all connectors. Empty array list if there are no connectors.
+	 */
+	public static ArrayList<String> connectors(FriendGraph g) {
+		if (g == null)
+			return null;
+		return biconnectivity(g, false).connectors;
+	}
+	
+	/**
+	 * Finds the connectors and bridges of a graph, and optionally its biconnected components,
+	 * in a single depth-first pass. See biconnectivity(FriendGraph,boolean).
+	 * 
+	 * @param g Graph to analyze
+	 * @param components Whether to also find the biconnected components
+	 * @return Connectors, bridges and (if asked for) biconnected components. Null if g is null
+	 */
+	public static Biconnectivity biconnectivity(Graph g, boolean components) {
+		if (g == null || g.members == null)
+			return null;
+		return biconnectivity(CsrGraph.of(g), components);
+	}
+	
+	/**
+	 * Finds the connectors and bridges of a graph, and optionally its biconnected components,
+	 * in a single depth-first pass (Hopcroft-Tarjan). The depth-first search keeps its own
+	 * stack of members instead of recursing, so it runs in linear time on graphs of any depth
+	 * without a larger thread stack.
+	 * 
+	 * @param g Graph to analyze
+	 * @param components Whether to also find the biconnected components
+	 * @return Connectors, bridges and (if asked for) biconnected components. Null if g is null
+	 */
+	public static Biconnectivity biconnectivity(FriendGraph g, boolean components) {
+		if (g == null)
+			return null;
+		MetricsSink sink = metrics;
+		if (sink == null)
+			return biconnectivity(g, components, null);
+		
+		long start = System.nanoTime();
+		int[] stackPeak = new int[1];
+		Biconnectivity result = biconnectivity(g, components, stackPeak);
+		long nanos = System.nanoTime() - start;
+		long n = g.size(), m = g.firstFriend(g.size());
+		long bytes = 22 * n + (components ? 4L * (m + 2) + 4 * n : 0);
+		sink.record(components ? "biconnectivity" : "connectors", "", nanos, n, m, stackPeak[0], bytes);
+		return result;
 	}
 	
-	private static boolean[] dfs(Graph g, int u, int v, int[] prev, int[] lo, int count, boolean[] cons) {
-		int c = 0;
-		prev[v] = count++;
-		lo[v] = prev[v];
-		for (Friend fr = g.members[v].first; fr != null; fr = fr.next) { 
-		if (prev[fr.fnum] == -1) {
-		    c++;
-		    int f = fr.fnum;
-		    dfs(g, v, f, prev, lo, count, cons);
-		    lo[v] = Math.min(lo[v], lo[fr.fnum]);
-		    if (lo[fr.fnum] >= prev[v] && u != v) 
-		        cons[v] = true;
+	private static Biconnectivity biconnectivity(FriendGraph g, boolean components, int[] stackPeak) {
+		Biconnectivity result = new Biconnectivity(components);
+		int n = g.size();
+		int[] disc = new int[n];		// discovery number, -1 if not visited yet
+		int[] lo = new int[n];			// lowest discovery number reachable through a back edge
+		int[] parent = new int[n];
+		int[] next = new int[n];		// next edge of each member to look at
+		boolean[] skippedParent = new boolean[n];
+		boolean[] cons = new boolean[n];
+		int[] stk = new int[n];
+		// edges of the components being built, as (from, to) pairs, and members already
+		// added to the current component
+		int[] edges = components ? new int[g.firstFriend(g.size()) + 2] : null;
+		int[] mark = components ? new int[n] : null;
+		int edgeTop = 0;
+		int componentCount = 0;
+		int maxTop = 0;
+		for (int v = 0; v < n; v++)
+			disc[v] = -1;
+		
+		int count = 0;
+		for (int root = 0; root < n; root++) {
+			if (disc[root] != -1)
+				continue;
+			int rootChildren = 0;
+			int top = 0;
+			stk[top++] = root;
+			disc[root] = lo[root] = count++;
+			parent[root] = -1;
+			next[root] = g.firstFriend(root);
+			while (top > 0) {
+				int u = stk[top-1];
+				if (next[u] < g.firstFriend(u+1)) {
+					int v = g.friend(next[u]++);
+					if (v == parent[u] && !skippedParent[u]) {
+						// the tree edge back to the parent (a second friendship with the
+						// parent is a real back edge)
+						skippedParent[u] = true;
+						continue;
+					}
+					if (disc[v] == -1) {
+						parent[v] = u;
+						disc[v] = lo[v] = count++;
+						next[v] = g.firstFriend(v);
+						stk[top++] = v;
+						if (top > maxTop)
+							maxTop = top;
+						if (u == root)
+							rootChildren++;
+						if (components) {
+							edges[edgeTop++] = u;
+							edges[edgeTop++] = v;
+						}
+					}
+					else if (disc[v] < disc[u]) {
+						lo[u] = Math.min(lo[u], disc[v]);
+						if (components) {
+							edges[edgeTop++] = u;
+							edges[edgeTop++] = v;
+						}
+					}
+					continue;
+				}
+				
+				// done with u, report back to its parent
+				top--;
+				int p = parent[u];
+				if (p == -1)
+					continue;
+				lo[p] = Math.min(lo[p], lo[u]);
+				if (lo[u] > disc[p])
+					result.bridges.add(new String[] { g.name(p), g.name(u) });
+				if (lo[u] >= disc[p]) {
+					if (p != root)
+						cons[p] = true;
+					if (components) {
+						// the edges above (p,u) on the edge stack form a biconnected component
+						componentCount++;
+						ArrayList<String> comp = new ArrayList<String>();
+						int a, b;
+						do {
+							b = edges[--edgeTop];
+							a = edges[--edgeTop];
+							if (mark[a] != componentCount) {
+								mark[a] = componentCount;
+								comp.add(g.name(a));
+							}
+							if (mark[b] != componentCount) {
+								mark[b] = componentCount;
+								comp.add(g.name(b));
+							}
+						} while (a != p || b != u);
+						result.components.add(comp);
+					}
+				}
+			}
+			if (rootChildren > 1)
+				cons[root] = true;
 		}
-		else if (fr.fnum != u)
-			lo[v] = Math.min(lo[v], prev[fr.fnum]);
-		}	
-		 if (u == v && c > 1)
-			 cons[v] = true;
-		 return cons;
+		
+	    for (int i = 0; i < n; i++) {
+	    	if (cons[i]) 
+	    		result.connectors.add(g.name(i));
+	    }
+		if (stackPeak != null)
+			stackPeak[0] = Math.max(maxTop, n > 0 ? 1 : 0);
+		return result;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,417 @@
+package friends;
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Loads a friendship file straight into CSR form, without building a Graph. The file has
+ * the same format the Graph constructor reads: the number of members, one line per member
+ * ("name|y|school" for students, "name|n" otherwise), then one "name|name" line per friendship.
+ *
+ * The file is streamed through a FileChannel in two passes. The first pass reads the members
+ * and counts each member's friends; the second pass, which starts at the first friendship line,
+ * fills in the neighbors array. Friendship lines are parsed as bytes and looked up in a
+ * byte-keyed hash table of names, so no String is made for them; a String is only made once
+ * per member name and once per distinct spelling of a school name. The result is the same
+ * CsrGraph, friend order included, as CsrGraph.of(new Graph(sc)) on the same file.
+ */
+public class GraphLoader {
+
+	/**
+	 * Receives progress reports while a file is loaded.
+	 */
+	public interface Listener {
+		/**
+		 * @param pass 1 while reading members and counting friends, 2 while filling in friends
+		 * @param bytes Bytes of the file read so far in this pass
+		 * @param totalBytes Size of the file
+		 * @param peakHeap Largest number of heap bytes in use so far during the load, summed
+		 *        over the JVM's heap memory pools. A pool's recorded peak is used if it has risen
+		 *        since the load started; otherwise the pool's highest usage seen at a report
+		 */
+		void progress(int pass, long bytes, long totalBytes, long peakHeap);
+	}
+
+	/**
+	 * Listener that prints one line per report to standard error
+	 */
+	public static final Listener PRINT_PROGRESS = new Listener() {
+		public void progress(int pass, long bytes, long totalBytes, long peakHeap) {
+			System.err.printf("pass %d: %,d of %,d bytes (%.1f%%), peak heap %,d MB%n", pass, bytes,
+					totalBytes, totalBytes == 0 ? 100.0 : 100.0 * bytes / totalBytes, peakHeap >> 20);
+		}
+	};
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final long REPORT_INTERVAL = 64L << 20;
+
+	private final FileChannel channel;
+	private final long size;
+	private final Listener listener;
+	private int pass;
+	private long nextReport;
+
+	// heap memory pools, each pool's recorded peak when the load started, and its highest
+	// usage seen since
+	private final List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+	private final long[] startPeak, highestUsage;
+
+	// read buffer, and the unread bytes buf[pos] .. buf[limit-1]
+	private byte[] buf = new byte[BUFFER_SIZE];
+	private int pos, limit;
+	private long consumed;
+	private boolean eof;
+
+	// current line, trimmed, is buf[lineStart] .. buf[lineEnd-1]; it starts at file offset lineOffset
+	private int lineStart, lineEnd;
+	private long lineOffset;
+
+	// member names as UTF-8 bytes: member v is nameBytes[nameStart[v]] .. nameBytes[nameStart[v+1]-1]
+	private byte[] nameBytes;
+	private int[] nameStart;
+	private int[] nameTable;
+	private int nameMask;
+
+	// distinct school spellings, and the school id of each
+	private final HashMap<ByteKey,Integer> schoolSpellings = new HashMap<ByteKey,Integer>();
+
+	private GraphLoader(FileChannel channel, Listener listener) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+		this.listener = listener;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				heapPools.add(pool);
+		}
+		startPeak = new long[heapPools.size()];
+		highestUsage = new long[heapPools.size()];
+		for (int i = 0; i < startPeak.length; i++) {
+			startPeak[i] = heapPools.get(i).getPeakUsage().getUsed();
+			highestUsage[i] = heapPools.get(i).getUsage().getUsed();
+		}
+	}
+
+	/**
+	 * Loads a friendship file.
+	 *
+	 * @param file Name of the file
+	 * @return CSR form of the graph in the file
+	 * @throws IOException If the file cannot be read, or is not a friendship file
+	 */
+	public static CsrGraph load(String file) throws IOException {
+		return load(file, null);
+	}
+
+	/**
+	 * Loads a friendship file, reporting progress about every 64MB of each pass, and once
+	 * at the end of each pass.
+	 *
+	 * @param file Name of the file
+	 * @param listener Receives progress reports, may be null
+	 * @return CSR form of the graph in the file
+	 * @throws IOException If the file cannot be read, or is not a friendship file
+	 */
+	public static CsrGraph load(String file, Listener listener) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+		try {
+			return new GraphLoader(channel, listener).load();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return Sum of the peak usage of the JVM's heap memory pools, in bytes, since the JVM
+	 *         started or the pools' peaks were last reset
+	 */
+	public static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	private CsrGraph load() throws IOException {
+		// pass 1: members, then count friends
+		startPass(1, 0);
+		if (!nextLine())
+			throw new IOException("Empty friendship file");
+		int n = parseCount();
+		String[] names = new String[n];
+		int[] schools = new int[n];
+		ArrayList<String> schoolList = new ArrayList<String>();
+		HashMap<String,Integer> schoolMap = new HashMap<String,Integer>();
+		nameBytes = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(16L, n * 8L))];
+		nameStart = new int[n + 1];
+		int tableSize = Integer.highestOneBit(Math.max(2, n) * 2 - 1) << 1;
+		nameTable = new int[tableSize];
+		nameMask = tableSize - 1;
+		for (int v = 0; v < n; v++) {
+			if (!nextLine())
+				throw new IOException("Expected " + n + " members, found " + v);
+			int bar = indexOf((byte) '|', lineStart, lineEnd);
+			if (bar == -1 || bar + 1 >= lineEnd)
+				throw new IOException("Bad member line at byte " + lineOffset);
+			names[v] = addName(v, lineStart, bar);
+			if (buf[bar + 1] == 'y') {
+				int bar2 = indexOf((byte) '|', bar + 1, lineEnd);
+				if (bar2 == -1)
+					throw new IOException("Student without a school at byte " + lineOffset);
+				schools[v] = schoolId(bar2 + 1, lineEnd, schoolList, schoolMap);
+			}
+			else
+				schools[v] = -1;
+		}
+
+		long edgeStart = consumed;
+		int[] offsets = new int[n + 1];
+		long edges = 0;
+		while (nextLine()) {
+			if (lineStart == lineEnd)
+				continue;
+			int bar = indexOf((byte) '|', lineStart, lineEnd);
+			if (bar == -1)
+				throw new IOException("Bad friendship line at byte " + lineOffset);
+			offsets[member(lineStart, bar) + 1]++;
+			offsets[member(bar + 1, lineEnd) + 1]++;
+			edges += 2;
+		}
+		if (edges > Integer.MAX_VALUE - 8)
+			throw new IOException("Too many friendships (" + edges / 2 + ") for int member indexes");
+		for (int v = 0; v < n; v++)
+			offsets[v + 1] += offsets[v];
+		report();
+
+		// pass 2: friends. Graph puts each friend at the front of the member's list, so each
+		// member's friends are filled in from the end of its range
+		int[] neighbors = new int[(int) edges];
+		int[] next = Arrays.copyOfRange(offsets, 1, n + 1);
+		channel.position(edgeStart);
+		startPass(2, edgeStart);
+		while (nextLine()) {
+			if (lineStart == lineEnd)
+				continue;
+			int bar = indexOf((byte) '|', lineStart, lineEnd);
+			int a = member(lineStart, bar);
+			int b = member(bar + 1, lineEnd);
+			neighbors[--next[a]] = b;
+			neighbors[--next[b]] = a;
+		}
+		report();
+
+		nameBytes = null;
+		nameTable = null;
+		return new CsrGraph(offsets, neighbors, names, schools,
+				schoolList.toArray(new String[schoolList.size()]));
+	}
+
+	private void startPass(int pass, long offset) {
+		this.pass = pass;
+		pos = limit = 0;
+		consumed = offset;
+		eof = false;
+		nextReport = offset + REPORT_INTERVAL;
+	}
+
+	private void report() {
+		if (listener != null)
+			listener.progress(pass, consumed, size, peakHeapDuringLoad());
+	}
+
+	/**
+	 * Finds the peak heap usage during the load without resetting the pools' peaks, which
+	 * belong to the whole JVM.
+	 *
+	 * @return Sum over the heap pools of the peak usage since the load started, in bytes
+	 */
+	private long peakHeapDuringLoad() {
+		long peak = 0;
+		for (int i = 0; i < startPeak.length; i++) {
+			MemoryPoolMXBean pool = heapPools.get(i);
+			highestUsage[i] = Math.max(highestUsage[i], pool.getUsage().getUsed());
+			long recorded = pool.getPeakUsage().getUsed();
+			peak += recorded > startPeak[i] ? recorded : highestUsage[i];
+		}
+		return peak;
+	}
+
+	/**
+	 * Moves to the next line, refilling the buffer as needed.
+	 *
+	 * @return False at the end of the file
+	 */
+	private boolean nextLine() throws IOException {
+		int nl;
+		while ((nl = indexOf((byte) '\n', pos, limit)) == -1) {
+			if (eof) {
+				if (pos == limit)
+					return false;
+				nl = limit;
+				break;
+			}
+			fill();
+		}
+		lineOffset = consumed;
+		int start = pos, end = nl;
+		while (start < end && isSpace(buf[start]))
+			start++;
+		while (end > start && isSpace(buf[end - 1]))
+			end--;
+		lineStart = start;
+		lineEnd = end;
+		int next = nl < limit ? nl + 1 : nl;
+		consumed += next - pos;
+		pos = next;
+		if (consumed >= nextReport) {
+			report();
+			nextReport += REPORT_INTERVAL;
+		}
+		return true;
+	}
+
+	private void fill() throws IOException {
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+		if (limit == buf.length)
+			buf = Arrays.copyOf(buf, buf.length * 2);	// a line longer than the buffer
+		ByteBuffer bb = ByteBuffer.wrap(buf, limit, buf.length - limit);
+		int r = channel.read(bb);
+		if (r == -1)
+			eof = true;
+		else
+			limit += r;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	private int indexOf(byte b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (buf[i] == b)
+				return i;
+		}
+		return -1;
+	}
+
+	private int parseCount() throws IOException {
+		long n = 0;
+		if (lineStart == lineEnd)
+			throw new IOException("Bad member count");
+		for (int i = lineStart; i < lineEnd; i++) {
+			int d = buf[i] - '0';
+			if (d < 0 || d > 9 || (n = n * 10 + d) > Integer.MAX_VALUE - 8)
+				throw new IOException("Bad member count");
+		}
+		return (int) n;
+	}
+
+	private static int hash(byte[] b, int from, int to) {
+		int h = 0;
+		for (int i = from; i < to; i++)
+			h = 31 * h + b[i];
+		return h ^ (h >>> 16);
+	}
+
+	private String addName(int v, int from, int to) {
+		int len = to - from;
+		int start = nameStart[v];
+		if (start + len > nameBytes.length) {
+			long capacity = Math.max((long) nameBytes.length * 2, (long) start + len);
+			nameBytes = Arrays.copyOf(nameBytes, (int) Math.min(capacity, Integer.MAX_VALUE - 8));
+		}
+		System.arraycopy(buf, from, nameBytes, start, len);
+		nameStart[v + 1] = start + len;
+		// a repeated name maps to its last member, as in Graph's map
+		int slot = hash(buf, from, to) & nameMask;
+		while (nameTable[slot] != 0 && !sameName(nameTable[slot] - 1, from, to))
+			slot = (slot + 1) & nameMask;
+		nameTable[slot] = v + 1;
+		return new String(buf, from, len, StandardCharsets.UTF_8);
+	}
+
+	private boolean sameName(int v, int from, int to) {
+		int start = nameStart[v];
+		if (nameStart[v + 1] - start != to - from)
+			return false;
+		for (int i = from; i < to; i++) {
+			if (nameBytes[start++] != buf[i])
+				return false;
+		}
+		return true;
+	}
+
+	private int member(int from, int to) throws IOException {
+		int slot = hash(buf, from, to) & nameMask;
+		int v;
+		while ((v = nameTable[slot]) != 0) {
+			if (sameName(v - 1, from, to))
+				return v - 1;
+			slot = (slot + 1) & nameMask;
+		}
+		throw new IOException("Unknown member \"" + new String(buf, from, to - from, StandardCharsets.UTF_8)
+				+ "\" at byte " + lineOffset);
+	}
+
+	private int schoolId(int from, int to, ArrayList<String> schoolList, HashMap<String,Integer> schoolMap) {
+		ByteKey key = new ByteKey(buf, from, to);
+		Integer s = schoolSpellings.get(key);
+		if (s == null) {
+			String school = new String(buf, from, to - from, StandardCharsets.UTF_8).toLowerCase();
+			s = schoolMap.get(school);
+			if (s == null) {
+				s = schoolList.size();
+				schoolMap.put(school, s);
+				schoolList.add(school);
+			}
+			schoolSpellings.put(key.copy(), s);
+		}
+		return s;
+	}
+
+	/**
+	 * A range of bytes, as a hash key. Lookups wrap the read buffer; stored keys own a copy.
+	 */
+	private static class ByteKey {
+		final byte[] bytes;
+		final int from, to, hash;
+
+		ByteKey(byte[] bytes, int from, int to) {
+			this.bytes = bytes;
+			this.from = from;
+			this.to = to;
+			this.hash = hash(bytes, from, to);
+		}
+
+		ByteKey copy() {
+			return new ByteKey(Arrays.copyOfRange(bytes, from, to), 0, to - from);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof ByteKey))
+				return false;
+			ByteKey k = (ByteKey) o;
+			if (k.to - k.from != to - from)
+				return false;
+			for (int i = from, j = k.from; i < to; i++, j++) {
+				if (bytes[i] != k.bytes[j])
+					return false;
+			}
+			return true;
+		}
+	}
+}
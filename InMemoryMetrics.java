@@ -0,0 +1,211 @@
+package friends;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.*;
+
+import javax.management.*;
+
+/**
+ * Default metrics sink: keeps running totals and a latency histogram per operation in memory,
+ * and can publish them as an MXBean. Latencies go into power-of-two buckets of nanoseconds, so
+ * percentiles are reported as the upper end of their bucket (or the maximum, if smaller), at
+ * most twice the true value.
+ * The slowest call of each operation is kept along with its arguments, to find pathological
+ * queries.
+ */
+public class InMemoryMetrics implements MetricsSink {
+
+	/**
+	 * Management interface, for JMX
+	 */
+	@MXBean
+	public interface Stats {
+		/**
+		 * @return Summary of each operation recorded so far, by operation name
+		 */
+		Map<String,Summary> getOperations();
+
+		/**
+		 * Forgets everything recorded so far.
+		 */
+		void reset();
+	}
+
+	/**
+	 * Summary of the calls of one operation
+	 */
+	public static class Summary {
+		private final long count, p50Nanos, p90Nanos, p99Nanos, maxNanos, totalNanos;
+		private final long nodesVisited, edgesRelaxed, frontierPeak, scratchBytes;
+		private final String slowest;
+
+		@ConstructorProperties({ "count", "totalNanos", "p50Nanos", "p90Nanos", "p99Nanos", "maxNanos",
+				"slowest", "nodesVisited", "edgesRelaxed", "frontierPeak", "scratchBytes" })
+		public Summary(long count, long totalNanos, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos,
+				String slowest, long nodesVisited, long edgesRelaxed, long frontierPeak, long scratchBytes) {
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.p50Nanos = p50Nanos;
+			this.p90Nanos = p90Nanos;
+			this.p99Nanos = p99Nanos;
+			this.maxNanos = maxNanos;
+			this.slowest = slowest;
+			this.nodesVisited = nodesVisited;
+			this.edgesRelaxed = edgesRelaxed;
+			this.frontierPeak = frontierPeak;
+			this.scratchBytes = scratchBytes;
+		}
+
+		/** @return Number of calls */
+		public long getCount() { return count; }
+		/** @return Total latency of all calls, in nanoseconds */
+		public long getTotalNanos() { return totalNanos; }
+		/** @return Median latency, in nanoseconds */
+		public long getP50Nanos() { return p50Nanos; }
+		/** @return 90th percentile latency, in nanoseconds */
+		public long getP90Nanos() { return p90Nanos; }
+		/** @return 99th percentile latency, in nanoseconds */
+		public long getP99Nanos() { return p99Nanos; }
+		/** @return Latency of the slowest call, in nanoseconds */
+		public long getMaxNanos() { return maxNanos; }
+		/** @return Arguments of the slowest call */
+		public String getSlowest() { return slowest; }
+		/** @return Members reached, over all calls */
+		public long getNodesVisited() { return nodesVisited; }
+		/** @return Friendships looked at, over all calls */
+		public long getEdgesRelaxed() { return edgesRelaxed; }
+		/** @return Largest frontier or stack of any call */
+		public long getFrontierPeak() { return frontierPeak; }
+		/** @return Scratch bytes allocated, over all calls */
+		public long getScratchBytes() { return scratchBytes; }
+
+		public String toString() {
+			return String.format("count=%d p50=%dus p90=%dus p99=%dus max=%dus (%s) nodes=%d edges=%d frontier=%d scratch=%dB",
+					count, p50Nanos / 1000, p90Nanos / 1000, p99Nanos / 1000, maxNanos / 1000, slowest,
+					nodesVisited, edgesRelaxed, frontierPeak, scratchBytes);
+		}
+	}
+
+	/**
+	 * Running totals of one operation
+	 */
+	private static class Operation {
+		final LongAdder count = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		final LongAdder nodes = new LongAdder();
+		final LongAdder edges = new LongAdder();
+		final LongAdder scratch = new LongAdder();
+		final AtomicLong frontierPeak = new AtomicLong();
+		final AtomicLongArray histogram = new AtomicLongArray(64);	// bucket i: latencies below 2^i ns
+		// written together under the Operation's lock; maxNanos is volatile because record
+		// reads it without the lock to skip calls that are not the slowest
+		volatile long maxNanos;
+		String slowest;
+	}
+
+	private final ConcurrentHashMap<String,Operation> operations = new ConcurrentHashMap<String,Operation>();
+
+	public void record(String operation, String detail, long nanos, long nodesVisited, long edgesRelaxed,
+			long frontierPeak, long scratchBytes) {
+		Operation op = operations.get(operation);
+		if (op == null) {
+			operations.putIfAbsent(operation, new Operation());
+			op = operations.get(operation);
+		}
+		op.count.increment();
+		op.nanos.add(nanos);
+		op.nodes.add(nodesVisited);
+		op.edges.add(edgesRelaxed);
+		op.scratch.add(scratchBytes);
+		op.histogram.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)) & 63);
+		long peak;
+		while ((peak = op.frontierPeak.get()) < frontierPeak && !op.frontierPeak.compareAndSet(peak, frontierPeak))
+			;
+		if (nanos > op.maxNanos) {
+			synchronized (op) {
+				if (nanos > op.maxNanos) {
+					op.maxNanos = nanos;
+					op.slowest = detail;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param operation Operation name
+	 * @return Summary of the operation's calls, null if none were recorded
+	 */
+	public Summary summary(String operation) {
+		Operation op = operations.get(operation);
+		if (op == null)
+			return null;
+		long[] hist = new long[64];
+		long total = 0;
+		for (int i = 0; i < 64; i++) {
+			hist[i] = op.histogram.get(i);
+			total += hist[i];
+		}
+		long maxNanos;
+		String slowest;
+		synchronized (op) {
+			maxNanos = op.maxNanos;
+			slowest = op.slowest;
+		}
+		return new Summary(op.count.sum(), op.nanos.sum(), Math.min(percentile(hist, total, 0.5), maxNanos),
+				Math.min(percentile(hist, total, 0.9), maxNanos), Math.min(percentile(hist, total, 0.99), maxNanos),
+				maxNanos, slowest, op.nodes.sum(), op.edges.sum(),
+				op.frontierPeak.get(), op.scratch.sum());
+	}
+
+	private static long percentile(long[] hist, long total, double p) {
+		long rank = (long) Math.ceil(total * p);
+		long seen = 0;
+		for (int i = 0; i < 64; i++) {
+			seen += hist[i];
+			if (seen >= rank && seen > 0)
+				return i == 63 ? Long.MAX_VALUE : 1L << i;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return Summary of every operation recorded so far, by operation name
+	 */
+	public Map<String,Summary> summaries() {
+		TreeMap<String,Summary> result = new TreeMap<String,Summary>();
+		for (String op : operations.keySet())
+			result.put(op, summary(op));
+		return result;
+	}
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void reset() {
+		operations.clear();
+	}
+
+	/**
+	 * Publishes the summaries in the platform MBean server.
+	 *
+	 * @param name Object name to register under, such as "friends:type=Metrics"
+	 * @return The object name registered
+	 * @throws JMException If the name is malformed or already taken
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new Stats() {
+			public Map<String,Summary> getOperations() {
+				return summaries();
+			}
+
+			public void reset() {
+				InMemoryMetrics.this.reset();
+			}
+		}, objectName);
+		return objectName;
+	}
+}
@@ -0,0 +1,425 @@
+package lse;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A keywords index saved to disk in a compact binary format, and opened read-only
+ * through a memory mapping. Opening a segment only reads its header, document table and
+ * noise words; posting lists are decoded on demand, one keyword at a time, and so are the
+ * keywords of a document.
+ *
+ * Layout (all ints and longs big-endian):
+ * <pre>
+ *     header:     magic, version, docCount, noiseCount, termCount (ints),
+ *                 noiseOffset, termIndexOffset, termDataOffset, postingsOffset, docTermsOffset (longs)
+ *     documents:  docCount x (varint length, UTF-8 bytes, varint document length), in document id order
+ *     noise:      noiseCount x (varint length, UTF-8 bytes)
+ *     term index: termCount x (int offset into term data, long offset into postings)
+ *     term data:  termCount x (varint length, UTF-8 bytes), sorted by UTF-8 bytes
+ *     postings:   per term, varint count, then for each run of occurrences with the same
+ *                 frequency: varint frequency (for the first run) or drop in frequency from the
+ *                 previous run, varint run length, and varint gaps between the run's document
+ *                 ids in ascending order (the first gap is the first id)
+ *     doc terms:  docCount x (int offset into the term lists that follow), then per document
+ *                 varint count and varint deltas of its term numbers, in ascending order
+ * </pre>
+ * Posting lists are stored in descending order of frequency, as in memory, but documents with
+ * the same frequency are stored in document id order, so that the gaps between ids are small.
+ * A posting list therefore reads back with its ties in document id order.
+ */
+class IndexSegment {
+
+	private static final int MAGIC = 0x4c534531; // "LSE1"
+	private static final int VERSION = 4;
+	private static final int HEADER_SIZE = 5 * 4 + 5 * 8;
+	private static final int TERM_ENTRY_SIZE = 4 + 8;
+
+	private final File file;
+	private final MappedByteBuffer buf;
+	private final String[] documents;
+	private final int[] documentLengths;
+	private final HashSet<String> noiseWords;
+	private final int termCount;
+	private final int termIndexOffset;
+	private final int termDataOffset;
+	private final int postingsOffset;
+	private final int docTermsOffset;
+
+	private IndexSegment(File file, MappedByteBuffer buf) throws IOException {
+		this.file = file;
+		this.buf = buf;
+		if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC)
+			throw new IOException("Not an index segment");
+		if (buf.getInt(4) != VERSION)
+			throw new IOException("Unsupported index segment version " + buf.getInt(4));
+		int docCount = buf.getInt(8);
+		int noiseCount = buf.getInt(12);
+		termCount = buf.getInt(16);
+		int noiseOffset = (int) buf.getLong(20);
+		termIndexOffset = (int) buf.getLong(28);
+		termDataOffset = (int) buf.getLong(36);
+		postingsOffset = (int) buf.getLong(44);
+		docTermsOffset = (int) buf.getLong(52);
+
+		documents = new String[docCount];
+		documentLengths = new int[docCount];
+		int[] pos = { HEADER_SIZE };
+		for (int i = 0; i < docCount; i++) {
+			documents[i] = readString(pos);
+			documentLengths[i] = readVarint(pos);
+		}
+		noiseWords = new HashSet<String>(noiseCount * 2);
+		pos[0] = noiseOffset;
+		for (int i = 0; i < noiseCount; i++)
+			noiseWords.add(readString(pos));
+	}
+
+	/**
+	 * Opens a segment file, mapping it into memory.
+	 *
+	 * @param file Name of the segment file
+	 * @return The opened segment
+	 * @throws IOException If the file cannot be read or is not a segment
+	 */
+	static IndexSegment open(String file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			if (ch.size() > Integer.MAX_VALUE)
+				throw new IOException("Index segment larger than 2GB: " + file);
+			return new IndexSegment(new File(file).getAbsoluteFile(), ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a keywords index to a segment file. Only the documents that are still indexed
+	 * are written, renumbered in the order of their ids. The segment is written to a temporary
+	 * file that then atomically replaces the file, so a segment that is mapped from the file
+	 * keeps reading the old contents.
+	 *
+	 * @param index Keywords index, each posting list in descending order of frequency
+	 * @param documentNames Document table, document names in id order
+	 * @param documentLengths Number of keywords in each indexed document, counting repeats
+	 * @param noiseWords Noise words the index was built with
+	 * @param file Name of the segment file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	static void write(Map<String,PostingList> index, List<String> documentNames, 
+			Map<String,Integer> documentLengths, Set<String> noiseWords, String file)
+	throws IOException {
+		byte[][] terms = new byte[index.size()][];
+		int n = 0;
+		for (String word : index.keySet())
+			terms[n++] = word.getBytes(StandardCharsets.UTF_8);
+		Arrays.sort(terms, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				return compareBytes(a, b);
+			}
+		});
+
+		ArrayList<String> docs = new ArrayList<String>();
+		int[] docIds = new int[documentNames.size()];
+		for (int d = 0; d < docIds.length; d++) {
+			if (documentLengths.containsKey(documentNames.get(d))) {
+				docIds[d] = docs.size();
+				docs.add(documentNames.get(d));
+			}
+			else
+				docIds[d] = -1;
+		}
+
+		ByteArrayOutputStream postings = new ByteArrayOutputStream();
+		long[] postingOffsets = new long[terms.length];
+		PostingList[] lists = new PostingList[terms.length];
+		int[] termCounts = new int[docs.size()];
+		int[] run = new int[16];
+		for (int t = 0; t < terms.length; t++) {
+			postingOffsets[t] = postings.size();
+			PostingList occs = index.get(new String(terms[t], StandardCharsets.UTF_8));
+			lists[t] = occs;
+			writeVarint(postings, occs.size());
+			int prevFreq = 0;
+			for (int i = 0; i < occs.size(); ) {
+				int freq = occs.freq(i);
+				int len = 0;
+				for (; i < occs.size() && occs.freq(i) == freq; i++) {
+					int id = docIds[occs.doc(i)];
+					if (id < 0)
+						throw new IllegalStateException("Posting for removed document " + documentNames.get(occs.doc(i)));
+					termCounts[id]++;
+					if (len == run.length)
+						run = Arrays.copyOf(run, 2 * len);
+					run[len++] = id;
+				}
+				Arrays.sort(run, 0, len);
+				writeVarint(postings, prevFreq == 0 ? freq : prevFreq - freq);
+				writeVarint(postings, len);
+				int prevDoc = 0;
+				for (int j = 0; j < len; j++) {
+					writeVarint(postings, run[j] - prevDoc);
+					prevDoc = run[j];
+				}
+				prevFreq = freq;
+			}
+		}
+
+		// terms are visited in ascending order, so each document's term numbers come out sorted
+		int[][] docTerms = new int[docs.size()][];
+		for (int d = 0; d < docTerms.length; d++) {
+			docTerms[d] = new int[termCounts[d]];
+			termCounts[d] = 0;
+		}
+		for (int t = 0; t < terms.length; t++) {
+			for (int i = 0; i < lists[t].size(); i++) {
+				int id = docIds[lists[t].doc(i)];
+				docTerms[id][termCounts[id]++] = t;
+			}
+		}
+		ByteArrayOutputStream docTermData = new ByteArrayOutputStream();
+		ByteArrayOutputStream docTermIndexBytes = new ByteArrayOutputStream(docTerms.length * 4);
+		DataOutputStream docTermIndex = new DataOutputStream(docTermIndexBytes);
+		for (int[] ts : docTerms) {
+			docTermIndex.writeInt(docTermData.size());
+			writeVarint(docTermData, ts.length);
+			int prev = 0;
+			for (int t : ts) {
+				writeVarint(docTermData, t - prev);
+				prev = t;
+			}
+		}
+
+		ByteArrayOutputStream docTable = new ByteArrayOutputStream();
+		for (String doc : docs) {
+			writeString(docTable, doc.getBytes(StandardCharsets.UTF_8));
+			Integer length = documentLengths.get(doc);
+			writeVarint(docTable, length == null ? 0 : length);
+		}
+		ByteArrayOutputStream noiseTable = new ByteArrayOutputStream();
+		for (String word : noiseWords)
+			writeString(noiseTable, word.getBytes(StandardCharsets.UTF_8));
+		ByteArrayOutputStream termData = new ByteArrayOutputStream();
+		ByteArrayOutputStream termIndexBytes = new ByteArrayOutputStream(terms.length * TERM_ENTRY_SIZE);
+		DataOutputStream termIndex = new DataOutputStream(termIndexBytes);
+		for (int t = 0; t < terms.length; t++) {
+			termIndex.writeInt(termData.size());
+			termIndex.writeLong(postingOffsets[t]);
+			writeString(termData, terms[t]);
+		}
+
+		long noiseOffset = HEADER_SIZE + docTable.size();
+		long termIndexOffset = noiseOffset + noiseTable.size();
+		long termDataOffset = termIndexOffset + (long) terms.length * TERM_ENTRY_SIZE;
+		long postingsOffset = termDataOffset + termData.size();
+		long docTermsOffset = postingsOffset + postings.size();
+		if (docTermsOffset + docTermIndexBytes.size() + docTermData.size() > Integer.MAX_VALUE)
+			throw new IOException("Index segment larger than 2GB");
+
+		File target = new File(file).getAbsoluteFile();
+		File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		boolean moved = false;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(docs.size());
+				out.writeInt(noiseWords.size());
+				out.writeInt(terms.length);
+				out.writeLong(noiseOffset);
+				out.writeLong(termIndexOffset);
+				out.writeLong(termDataOffset);
+				out.writeLong(postingsOffset);
+				out.writeLong(docTermsOffset);
+				docTable.writeTo(out);
+				noiseTable.writeTo(out);
+				termIndexBytes.writeTo(out);
+				termData.writeTo(out);
+				postings.writeTo(out);
+				docTermIndexBytes.writeTo(out);
+				docTermData.writeTo(out);
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		} finally {
+			if (!moved)
+				temp.delete();
+		}
+	}
+
+	/**
+	 * @return The file the segment is mapped from
+	 */
+	File file() {
+		return file;
+	}
+
+	/**
+	 * @return Names of the documents in the segment, in document id order
+	 */
+	String[] documents() {
+		return documents;
+	}
+
+	/**
+	 * @param d Document id
+	 * @return Number of keywords in the document, counting repeats
+	 */
+	int documentLength(int d) {
+		return documentLengths[d];
+	}
+
+	/**
+	 * @return Noise words the index was built with
+	 */
+	HashSet<String> noiseWords() {
+		return noiseWords;
+	}
+
+	/**
+	 * @return Number of keywords in the segment
+	 */
+	int termCount() {
+		return termCount;
+	}
+
+	/**
+	 * @param t Term number, 0..termCount-1, in sorted order
+	 * @return The keyword
+	 */
+	String term(int t) {
+		int[] pos = { termDataOffset + buf.getInt(termIndexOffset + t * TERM_ENTRY_SIZE) };
+		return readString(pos);
+	}
+
+	/**
+	 * Decodes the keywords of a document.
+	 *
+	 * @param d Document id
+	 * @return New list of the keywords that have the document in their posting lists, in sorted order
+	 */
+	ArrayList<String> documentTerms(int d) {
+		int[] pos = { docTermsOffset + documents.length * 4 + buf.getInt(docTermsOffset + d * 4) };
+		int count = readVarint(pos);
+		ArrayList<String> words = new ArrayList<String>(count);
+		int t = 0;
+		for (int i = 0; i < count; i++) {
+			t += readVarint(pos);
+			words.add(term(t));
+		}
+		return words;
+	}
+
+	/**
+	 * Looks up a keyword with a binary search of the term dictionary, and decodes its
+	 * posting list. Safe to call from several threads at once.
+	 *
+	 * @param word Keyword
+	 * @return New posting list of the keyword, in descending order of frequency, with
+	 *         the segment's document ids, or null if the keyword is not in the segment
+	 */
+	PostingList postings(String word) {
+		byte[] key = word.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = termCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int[] pos = { termDataOffset + buf.getInt(termIndexOffset + mid * TERM_ENTRY_SIZE) };
+			int len = readVarint(pos);
+			int cmp = compareTerm(pos[0], len, key);
+			if (cmp == 0)
+				return readPostings(postingsOffset + (int) buf.getLong(termIndexOffset + mid * TERM_ENTRY_SIZE + 4));
+			if (cmp < 0)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return null;
+	}
+
+	private PostingList readPostings(int offset) {
+		int[] pos = { offset };
+		int count = readVarint(pos);
+		PostingList occs = new PostingList(count);
+		int freq = 0;
+		for (int i = 0; i < count; ) {
+			int drop = readVarint(pos);
+			freq = i == 0 ? drop : freq - drop;
+			int len = readVarint(pos);
+			int doc = 0;
+			for (int j = 0; j < len; j++) {
+				doc += readVarint(pos);
+				occs.add(doc, freq);
+			}
+			i += len;
+		}
+		return occs;
+	}
+
+	/**
+	 * Compares the len bytes of the mapped buffer starting at offset against a key, by unsigned bytes.
+	 */
+	private int compareTerm(int offset, int len, byte[] key) {
+		int n = Math.min(len, key.length);
+		for (int i = 0; i < n; i++) {
+			int x = buf.get(offset + i) & 0xff;
+			int y = key[i] & 0xff;
+			if (x != y)
+				return x - y;
+		}
+		return len - key.length;
+	}
+
+	private static int compareBytes(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			int x = a[i] & 0xff;
+			int y = b[i] & 0xff;
+			if (x != y)
+				return x - y;
+		}
+		return a.length - b.length;
+	}
+
+	private String readString(int[] pos) {
+		int len = readVarint(pos);
+		byte[] b = new byte[len];
+		for (int i = 0; i < len; i++)
+			b[i] = buf.get(pos[0] + i);
+		pos[0] += len;
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private int readVarint(int[] pos) {
+		int v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf.get(pos[0]++);
+			v |= (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return v;
+	}
+
+	private static void writeString(ByteArrayOutputStream out, byte[] b) {
+		writeVarint(out, b.length);
+		out.write(b, 0, b.length);
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int v) {
+		while ((v & ~0x7f) != 0) {
+			out.write((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+}
@@ -0,0 +1,206 @@
+package lse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Tokenizer used by LittleSearchEngine to load the keywords of a document. The document
+ * is read through a file channel and decoded into a fixed char buffer, and each
+ * whitespace-separated word is checked and lower-cased in place in a reusable token buffer.
+ * Keywords are counted in an open-addressing table keyed directly on the token characters,
+ * so a String is only created the first time a word is seen in a document.
+ *
+ * A scanner is not thread-safe; each thread should use its own instance.
+ */
+class KeywordScanner {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+	private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	private char[] token = new char[64];
+	private int tokenLength;
+
+	/**
+	 * Words seen in the current document. A word that is a noise word is kept with
+	 * a null Occurrence so that later appearances of it are not re-checked.
+	 */
+	private String[] keys = new String[256];
+	private int[] hashes = new int[256];
+	private Occurrence[] occs = new Occurrence[256];
+	private int size;
+
+	private String docFile;
+	private Set<String> noiseWords;
+
+	/**
+	 * Scans a document and returns its keywords, with the same results as running
+	 * LittleSearchEngine.getKeyword on every word returned by Scanner.next().
+	 *
+	 * @param docFile Name of the document file to be scanned
+	 * @param noiseWords Noise words to skip
+	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	HashMap<String,Occurrence> scan(String docFile, Set<String> noiseWords)
+	throws FileNotFoundException {
+		this.docFile = docFile;
+		this.noiseWords = noiseWords;
+		HashMap<String,Occurrence> keyWords;
+		FileInputStream in = new FileInputStream(docFile);
+		try {
+			FileChannel ch = in.getChannel();
+			boolean eof = false;
+			while (!eof) {
+				eof = ch.read(bytes) == -1;
+				bytes.flip();
+				decoder.decode(bytes, chars, eof);
+				drain();
+				bytes.compact();
+			}
+			while (decoder.flush(chars) == CoderResult.OVERFLOW)
+				drain();
+			drain();
+			endToken();
+
+			keyWords = new HashMap<String,Occurrence>(size * 2);
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != null && occs[i] != null)
+					keyWords.put(keys[i], occs[i]);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) { }
+			reset();
+		}
+		return keyWords;
+	}
+
+	/**
+	 * Clears everything left from the last document, whether or not it was scanned to the end,
+	 * so that the next document starts from an empty table and empty buffers.
+	 */
+	private void reset() {
+		Arrays.fill(keys, null);
+		Arrays.fill(occs, null);
+		size = 0;
+		tokenLength = 0;
+		bytes.clear();
+		chars.clear();
+		decoder.reset();
+		docFile = null;
+		noiseWords = null;
+	}
+
+	/**
+	 * Checks a word for the keyword test, lower-casing it in place. A keyword starts with
+	 * a letter or digit, and may only be followed by trailing characters that are not.
+	 *
+	 * @param word Word characters, modified in place
+	 * @param len Number of characters in the word
+	 * @return Length of the keyword (the word without its trailing punctuation), or -1
+	 *         if the word is rejected
+	 */
+	static int keywordLength(char[] word, int len) {
+		if (len == 0 || !Character.isLetterOrDigit(word[0]))
+			return -1;
+		int i = 0;
+		while (i < len && Character.isLetterOrDigit(word[i])) {
+			word[i] = Character.toLowerCase(word[i]);
+			i++;
+		}
+		for (int j = i; j < len; j++) {
+			if (Character.isLetterOrDigit(word[j]))
+				return -1;
+		}
+		return i;
+	}
+
+	private void drain() {
+		chars.flip();
+		while (chars.hasRemaining()) {
+			char c = chars.get();
+			if (Character.isWhitespace(c))
+				endToken();
+			else {
+				if (tokenLength == token.length)
+					token = Arrays.copyOf(token, tokenLength * 2);
+				token[tokenLength++] = c;
+			}
+		}
+		chars.clear();
+	}
+
+	private void endToken() {
+		if (tokenLength == 0)
+			return;
+		int len = keywordLength(token, tokenLength);
+		tokenLength = 0;
+		if (len > 0)
+			count(len);
+	}
+
+	private void count(int len) {
+		int h = 0;
+		for (int i = 0; i < len; i++)
+			h = 31 * h + token[i];
+		int mask = keys.length - 1;
+		int i = (h ^ (h >>> 16)) & mask;
+		while (keys[i] != null) {
+			if (hashes[i] == h && matches(keys[i], len)) {
+				if (occs[i] != null)
+					occs[i].frequency++;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		String word = new String(token, 0, len);
+		keys[i] = word;
+		hashes[i] = h;
+		occs[i] = noiseWords.contains(word) ? null : new Occurrence(docFile, 1);
+		if (++size * 2 > keys.length)
+			grow();
+	}
+
+	private boolean matches(String key, int len) {
+		if (key.length() != len)
+			return false;
+		for (int i = 0; i < len; i++) {
+			if (key.charAt(i) != token[i])
+				return false;
+		}
+		return true;
+	}
+
+	private void grow() {
+		String[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		Occurrence[] oldOccs = occs;
+		keys = new String[oldKeys.length * 2];
+		hashes = new int[keys.length];
+		occs = new Occurrence[keys.length];
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == null)
+				continue;
+			int h = oldHashes[j];
+			int i = (h ^ (h >>> 16)) & mask;
+			while (keys[i] != null)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			hashes[i] = h;
+			occs[i] = oldOccs[j];
+		}
+	}
+}
@@ -0,0 +1,402 @@
+package friends;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Distance oracle for friend chains. The index holds the distance (number of friendships in a
+ * shortest chain) from each of k landmark members to every member, with the k members of
+ * highest degree as landmarks. By the triangle inequality, for any landmark L,
+ * |d(a,L) - d(b,L)| &lt;= d(a,b) &lt;= d(a,L) + d(L,b), so lower and upper bounds on the distance
+ * between any two members take O(k) time. Since well-connected members sit on many shortest
+ * chains, the upper bound is often exact.
+ *
+ * Exact distances are found with a bidirectional breadth-first search that skips every member
+ * whose depth plus its lower bound to the other end is more than the upper bound, so only
+ * members that can be on a shorter chain are expanded.
+ *
+ * The landmark searches are independent and run in parallel. An index can be saved to a file
+ * and opened again for the same graph.
+ */
+public class LandmarkIndex {
+
+	private static final int MAGIC = 0x4c4d4b31;	// "LMK1"
+
+	/**
+	 * Distance value of a member not reachable from a landmark
+	 */
+	private static final int UNREACHABLE = -1;
+
+	final CsrGraph graph;
+
+	/**
+	 * Member index of each landmark
+	 */
+	final int[] landmarks;
+
+	/**
+	 * Distance from landmark i to member v is dist[v*k + i], UNREACHABLE if there is no chain.
+	 * A member's k distances are next to each other, so a bound reads two short runs.
+	 */
+	final int[] dist;
+
+	private final int k;
+
+	/**
+	 * Builds an index with one thread per core.
+	 *
+	 * @param g Graph
+	 * @param k Number of landmarks, at most the number of members
+	 */
+	public LandmarkIndex(Graph g, int k) {
+		this(CsrGraph.of(g), k, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Builds an index, searching from the landmarks in parallel.
+	 *
+	 * @param g Graph
+	 * @param k Number of landmarks, at most the number of members
+	 * @param threads Number of threads to search from the landmarks with
+	 * @throws IllegalArgumentException If k or threads is out of range, or the graph has too
+	 *         many members for k distances each to fit in one array
+	 */
+	public LandmarkIndex(CsrGraph g, int k, int threads) {
+		if (k < 1 || k > g.size())
+			throw new IllegalArgumentException("k must be between 1 and the number of members");
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be at least 1");
+		graph = g;
+		this.k = k;
+		int size;
+		try {
+			size = Math.multiplyExact(g.size(), k);
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException(g.size() + " members x " + k + " landmarks is too many distances for one array");
+		}
+		landmarks = highestDegree(g, k);
+		dist = new int[size];
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, k));
+		try {
+			ArrayList<Future<?>> searches = new ArrayList<Future<?>>(k);
+			for (int i = 0; i < k; i++) {
+				final int l = i;
+				searches.add(pool.submit(new Runnable() {
+					public void run() {
+						search(l);
+					}
+				}));
+			}
+			for (Future<?> f : searches)
+				await(f);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private LandmarkIndex(CsrGraph g, int[] landmarks, int[] dist) {
+		graph = g;
+		this.landmarks = landmarks;
+		this.dist = dist;
+		k = landmarks.length;
+	}
+
+	/**
+	 * @return Indexes of the k members of highest degree, ties going to the lower index
+	 */
+	private static int[] highestDegree(CsrGraph g, int k) {
+		// min-heap on (degree, -index) of the best k so far
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(k, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Integer.compare(g.degree(a), g.degree(b));
+				return c != 0 ? c : Integer.compare(b, a);
+			}
+		});
+		for (int v = 0; v < g.size(); v++) {
+			if (heap.size() < k)
+				heap.add(v);
+			else if (heap.comparator().compare(v, heap.peek()) > 0) {
+				heap.poll();
+				heap.add(v);
+			}
+		}
+		int[] result = new int[k];
+		for (int i = k - 1; i >= 0; i--)
+			result[i] = heap.poll();
+		return result;
+	}
+
+	/**
+	 * Fills in the distances from landmark l with a breadth-first search.
+	 */
+	private void search(int l) {
+		int n = graph.size();
+		for (int v = 0; v < n; v++)
+			dist[v*k + l] = UNREACHABLE;
+		int[] queue = new int[n];
+		int head = 0, tail = 0;
+		queue[tail++] = landmarks[l];
+		dist[landmarks[l]*k + l] = 0;
+		while (head < tail) {
+			int u = queue[head++];
+			int d = dist[u*k + l] + 1;
+			for (int e = graph.offsets[u]; e < graph.offsets[u+1]; e++) {
+				int v = graph.neighbors[e];
+				if (dist[v*k + l] == UNREACHABLE) {
+					dist[v*k + l] = d;
+					queue[tail++] = v;
+				}
+			}
+		}
+	}
+
+	private static void await(Future<?> f) {
+		try {
+			f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while building landmark index", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * @return Number of landmarks
+	 */
+	public int landmarkCount() {
+		return k;
+	}
+
+	/**
+	 * Returns an upper bound on the distance between two members.
+	 *
+	 * @param a Member index
+	 * @param b Member index
+	 * @return Smallest d(a,L) + d(L,b) over all landmarks L reachable from both,
+	 *         Integer.MAX_VALUE if there is none
+	 */
+	public int upperBound(int a, int b) {
+		if (a == b)
+			return 0;
+		int best = Integer.MAX_VALUE;
+		for (int i = 0, ia = a*k, ib = b*k; i < k; i++, ia++, ib++) {
+			int da = dist[ia], db = dist[ib];
+			if (da != UNREACHABLE && db != UNREACHABLE && da + db < best)
+				best = da + db;
+		}
+		return best;
+	}
+
+	/**
+	 * Returns a lower bound on the distance between two members.
+	 *
+	 * @param a Member index
+	 * @param b Member index
+	 * @return Largest |d(a,L) - d(b,L)| over all landmarks L reachable from both, or
+	 *         Integer.MAX_VALUE if some landmark is reachable from only one of them, which
+	 *         means there is no chain between them
+	 */
+	public int lowerBound(int a, int b) {
+		int best = 0;
+		for (int i = 0, ia = a*k, ib = b*k; i < k; i++, ia++, ib++) {
+			int da = dist[ia], db = dist[ib];
+			if (da == UNREACHABLE || db == UNREACHABLE) {
+				if (da != db)
+					return Integer.MAX_VALUE;
+			}
+			else if (Math.abs(da - db) > best)
+				best = Math.abs(da - db);
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the exact distance between two people.
+	 *
+	 * @param p1 Name of a person
+	 * @param p2 Name of a person
+	 * @return Number of friendships in a shortest chain between them, -1 if there is no chain
+	 *         or either person is not in the graph
+	 */
+	public int distance(String p1, String p2) {
+		int a = graph.index(p1), b = graph.index(p2);
+		if (a == -1 || b == -1)
+			return -1;
+		int d = distance(a, b, Integer.MAX_VALUE);
+		return d == Integer.MAX_VALUE ? -1 : d;
+	}
+
+	/**
+	 * Tells whether two people are at most a given distance apart. Answered from the bounds
+	 * alone when they decide it, otherwise by a search cut off at the limit.
+	 *
+	 * @param p1 Name of a person
+	 * @param p2 Name of a person
+	 * @param limit Largest allowed number of friendships in the chain
+	 * @return True if there is a chain of at most limit friendships between them
+	 */
+	public boolean within(String p1, String p2, int limit) {
+		int a = graph.index(p1), b = graph.index(p2);
+		if (a == -1 || b == -1 || limit < 0)
+			return false;
+		// Integer.MAX_VALUE means no bound and no chain, not a distance, even if limit is that large
+		int upper = upperBound(a, b);
+		if (upper != Integer.MAX_VALUE && upper <= limit)
+			return true;
+		int d = distance(a, b, limit);
+		return d != Integer.MAX_VALUE && d <= limit;
+	}
+
+	/**
+	 * Finds the distance between two members with a bidirectional breadth-first search pruned
+	 * by the landmark bounds.
+	 *
+	 * @param a Member index
+	 * @param b Member index
+	 * @param limit Distances over this are not looked for
+	 * @return Distance between a and b, or Integer.MAX_VALUE if it is more than limit or
+	 *         there is no chain
+	 */
+	int distance(int a, int b, int limit) {
+		int lower = lowerBound(a, b);
+		if (lower > limit)
+			return Integer.MAX_VALUE;
+		int upper = upperBound(a, b);
+		if (lower == upper)
+			return upper;
+		// look for chains of at most best friendships: shorter than the upper bound, within the limit
+		int best = upper <= limit ? upper - 1 : limit;
+
+		// Each side expands a whole level at a time, the side with the smaller frontier first,
+		// and the depth of each member a side has reached is kept in its prev array. A member
+		// is not reached at all if even a chain through it at that depth would be longer than
+		// best; the members of every short enough chain are still reached, at their true depths.
+		ChainBatch.Scratch s = ChainBatch.scratch(graph.size());
+		int epoch = s.nextEpoch();
+		int[] seenF = s.seenF, seenB = s.seenB, depthF = s.prevF, depthB = s.prevB, qF = s.qF, qB = s.qB;
+		int headF = 0, tailF = 1, headB = 0, tailB = 1;
+		int levelF = 0, levelB = 0;
+		qF[0] = a;
+		qB[0] = b;
+		seenF[a] = seenB[b] = epoch;
+		depthF[a] = depthB[b] = 0;
+		int found = best + 1;
+		while (headF < tailF && headB < tailB && levelF + levelB + 1 < found) {
+			boolean forward = tailF - headF <= tailB - headB;
+			int[] q = forward ? qF : qB;
+			int[] seen = forward ? seenF : seenB;
+			int[] depth = forward ? depthF : depthB;
+			int[] otherSeen = forward ? seenB : seenF;
+			int[] otherDepth = forward ? depthB : depthF;
+			int head = forward ? headF : headB;
+			int tail = forward ? tailF : tailB;
+			int d = (forward ? levelF : levelB) + 1;
+			int otherLevel = forward ? levelB : levelF;
+			int end = tail;
+			level:
+			for (; head < end; head++) {
+				int u = q[head];
+				for (int e = graph.offsets[u]; e < graph.offsets[u+1]; e++) {
+					int v = graph.neighbors[e];
+					if (seen[v] == epoch)
+						continue;
+					if (otherSeen[v] == epoch) {
+						// a meeting with the other side's last level is the shortest this level
+						// can give; any other meeting on it is no shorter than one already found,
+						// or longer than best
+						found = Math.min(found, d + otherDepth[v]);
+						if (found == d + otherLevel)
+							break level;
+						continue;
+					}
+					// chains through v have at least d + lowerBound(v, target) friendships
+					long least = (long) d + (forward ? lowerBound(v, b) : lowerBound(a, v));
+					if (least > best)
+						continue;
+					seen[v] = epoch;
+					depth[v] = d;
+					q[tail++] = v;
+				}
+			}
+			if (forward) {
+				headF = head;
+				tailF = tail;
+				levelF = d;
+			}
+			else {
+				headB = head;
+				tailB = tail;
+				levelB = d;
+			}
+		}
+		if (found <= best)
+			return found;
+		// no chain shorter than the upper bound, so it is exact
+		return upper <= limit ? upper : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Saves the index to a file.
+	 *
+	 * @param file Name of the file
+	 * @throws IOException If the file cannot be written
+	 */
+	public void save(String file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(graph.size());
+			out.writeInt(k);
+			for (int l : landmarks)
+				out.writeUTF(graph.names[l]);
+			for (int d : dist)
+				out.writeInt(d);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Opens an index saved with save. The graph must be the one the index was built for.
+	 *
+	 * @param g Graph the index was built for
+	 * @param file Name of the file
+	 * @return The index
+	 * @throws IOException If the file cannot be read, or is not an index of this graph
+	 */
+	public static LandmarkIndex open(CsrGraph g, String file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a landmark index");
+			int n = in.readInt();
+			int k = in.readInt();
+			if (n != g.size() || k < 1 || k > n)
+				throw new IOException(file + " is not an index of this graph");
+			int[] landmarks = new int[k];
+			for (int i = 0; i < k; i++) {
+				landmarks[i] = g.index(in.readUTF());
+				if (landmarks[i] == -1)
+					throw new IOException(file + " is not an index of this graph");
+			}
+			int size;
+			try {
+				size = Math.multiplyExact(n, k);
+			} catch (ArithmeticException e) {
+				throw new IOException(file + " has too many distances for one array: " + n + " members x " + k + " landmarks");
+			}
+			int[] dist = new int[size];
+			for (int i = 0; i < dist.length; i++)
+				dist[i] = in.readInt();
+			return new LandmarkIndex(g, landmarks, dist);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package lse;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This class builds an index of keywords. Each keyword maps to a set of pages in
@@ -12,27 +14,101 @@ public class LittleSearchEngine {
 	
 	/**
 	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
-	 * an array list of all occurrences of the keyword in documents. The array list is maintained in 
-	 * DESCENDING order of frequencies.
+	 * a posting list of all occurrences of the keyword in documents, as ids into the document table 
+	 * with frequencies. The posting list is maintained in DESCENDING order of frequencies.
 	 */
-	HashMap<String,ArrayList<Occurrence>> keywordsIndex;
+	HashMap<String,PostingList> keywordsIndex;
 	
 	/**
 	 * The hash set of all noise words.
 	 */
 	HashSet<String> noiseWords;
 	
+	/**
+	 * Index segment opened with openIndex, if any. Keywords in the segment are loaded into
+	 * keywordsIndex the first time they are searched for or merged into.
+	 */
+	IndexSegment segment;
+	
+	/**
+	 * Keywords of each indexed document, used to find the Occurrence lists that a removed
+	 * document has to be dropped from. The keywords are null for documents loaded from a 
+	 * segment, and are read from the segment when the document is removed.
+	 */
+	HashMap<String,ArrayList<String>> documentKeywords;
+	
+	/**
+	 * Length of each indexed document, counted as the number of keywords in it (with repeats),
+	 * and the total length of all indexed documents. Used by rankedSearch scorers.
+	 */
+	HashMap<String,Integer> documentLengths;
+	long totalLength;
+	
+	/**
+	 * Removed documents whose Occurrences have not yet been compacted out of keywordsIndex, 
+	 * each with the keywords to compact. Searches skip these documents.
+	 */
+	HashMap<String,ArrayList<String>> tombstones;
+	BitSet tombstoneIds;
+	
+	/**
+	 * Document-id sorted views of Occurrence lists used by booleanSearch, built on demand and
+	 * dropped whenever the keyword's Occurrence list changes.
+	 */
+	HashMap<String,SortedPostings> sortedPostings;
+	
+	/**
+	 * Document table: the id of each document seen by the index, and the document names in 
+	 * id order. Ids are never reused, even after a document is removed.
+	 */
+	HashMap<String,Integer> documentIds;
+	ArrayList<String> documentNames;
+	
+	/**
+	 * Cache of search results, null unless enabled with enableResultCache.
+	 */
+	ResultCache resultCache;
+	
+	/**
+	 * Cached result of a search that had no matches.
+	 */
+	private static final ArrayList<String> NO_MATCH = new ArrayList<String>(0);
+	
+	/**
+	 * Single daemon thread that compacts tombstoned documents out of keywordsIndex, 
+	 * created on the first removal.
+	 */
+	private ExecutorService compactor;
+	private boolean compactionPending;
+	
+	/**
+	 * Per-thread document tokenizers, so their buffers are reused from one document to the next.
+	 */
+	private final ThreadLocal<KeywordScanner> scanners = new ThreadLocal<KeywordScanner>() {
+		protected KeywordScanner initialValue() {
+			return new KeywordScanner();
+		}
+	};
+	
 	/**
 	 * Creates the keyWordsIndex and noiseWords hash tables.
 	 */
 	public LittleSearchEngine() {
-		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
+		keywordsIndex = new HashMap<String,PostingList>(1000,2.0f);
 		noiseWords = new HashSet<String>(100,2.0f);
+		documentKeywords = new HashMap<String,ArrayList<String>>();
+		tombstones = new HashMap<String,ArrayList<String>>();
+		tombstoneIds = new BitSet();
+		documentLengths = new HashMap<String,Integer>();
+		sortedPostings = new HashMap<String,SortedPostings>();
+		documentIds = new HashMap<String,Integer>();
+		documentNames = new ArrayList<String>();
 	}
 	
 	/**
 	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * in the document. Keywords are separated from other words with the same test as the 
+	 * getKeyWord method, done by a KeywordScanner directly on the document's character buffer.
 	 * 
 	 * @param docFile Name of the document file to be scanned and loaded
 	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
@@ -40,20 +116,7 @@ public class LittleSearchEngine {
 	 */
 	public HashMap<String,Occurrence> loadKeywordsFromDocument(String docFile) 
 	throws FileNotFoundException {
-		HashMap<String, Occurrence> keyWords = new HashMap<String, Occurrence>();
-		Scanner sc = new Scanner(new File(docFile));
-		String temp = "";
-		while (sc.hasNext()) {
-			temp = getKeyword(sc.next());
-			if (temp != null) {
-				if (keyWords.containsKey(temp)) 
-					keyWords.get(temp).frequency++;
-				else
-					keyWords.put(temp,  new Occurrence(docFile, 1));
-			}
-		}
-		sc.close();
-		return keyWords;
+		return scanners.get().scan(docFile, noiseWords);
 	}
 	
 	/**
@@ -61,27 +124,372 @@ public class LittleSearchEngine {
 	 * hash table. For each keyword, its Occurrence in the current document
 	 * must be inserted in the correct place (according to descending order of
 	 * frequency) in the same keyword's Occurrence list in the master hash table. 
-	 * This is done by calling the insertLastOccurrence method.
+	 * This is done by PostingList.insertLast, which places it with the same binary
+	 * search as insertLastOccurrence.
 	 * 
 	 * @param kws Keywords hash table for a document
 	 */
-	public void mergeKeywords(HashMap<String,Occurrence> kws) {
+	public synchronized void mergeKeywords(HashMap<String,Occurrence> kws) {
 		
+		recordDocument(kws);
 		for (String word : kws.keySet()) {
-			Occurrence keyOcc = kws.get(word); 
-			if (keywordsIndex.containsKey(word)) {
-				keywordsIndex.get(word).add(keyOcc);
-				insertLastOccurrence(keywordsIndex.get(word));
-			}
-			else {				
-				ArrayList<Occurrence> tempList = new ArrayList<Occurrence>(1);
-				tempList.add(keyOcc);
-				keywordsIndex.put(word, tempList);
-			}				
+			mergeKeyword(keywordsIndex, word, kws.get(word));
+			keywordChanged(word);
 		}
 
 	}
 	
+	/**
+	 * Merges a single keyword occurrence into the given index, keeping the keyword's
+	 * posting list in descending order of frequency. The document must already be in
+	 * the document table.
+	 * 
+	 * @param index Index to merge into (the master index, or one shard of it)
+	 * @param word Keyword
+	 * @param keyOcc Occurrence of the keyword in a single document
+	 */
+	private void mergeKeyword(HashMap<String,PostingList> index, String word, Occurrence keyOcc) {
+		mergeKeyword(index, word, documentIds.get(keyOcc.document), keyOcc.frequency);
+	}
+	
+	/**
+	 * Merges a single keyword occurrence, given by document id, into the given index.
+	 * Does not read the document table, so that shards can merge while documents are recorded.
+	 * 
+	 * @param index Index to merge into (the master index, or one shard of it)
+	 * @param word Keyword
+	 * @param doc Document id
+	 * @param freq Frequency of the keyword in the document
+	 */
+	private void mergeKeyword(HashMap<String,PostingList> index, String word, int doc, int freq) {
+		PostingList occs = loadOccurrences(index, word);
+		if (occs != null) {
+			occs.add(doc, freq);
+			occs.insertLast();
+		}
+		else {				
+			PostingList tempList = new PostingList(1);
+			tempList.add(doc, freq);
+			index.put(word, tempList);
+		}
+	}
+	
+	/**
+	 * Returns the id of a document in the document table, adding it if needed.
+	 * 
+	 * @param docFile Name of the document
+	 * @return Id of the document
+	 */
+	private int documentId(String docFile) {
+		Integer id = documentIds.get(docFile);
+		if (id == null) {
+			id = documentNames.size();
+			documentIds.put(docFile, id);
+			documentNames.add(docFile);
+		}
+		return id;
+	}
+	
+	/**
+	 * Records the keywords of a document about to be merged into the index. If the document
+	 * was removed but not compacted yet, it is compacted first so that its new Occurrences
+	 * are not taken for removed ones.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	private void recordDocument(HashMap<String,Occurrence> kws) {
+		if (kws.isEmpty())
+			return;
+		String docFile = kws.values().iterator().next().document;
+		if (tombstones.containsKey(docFile))
+			compactDocument(docFile);
+		documentId(docFile);
+		ArrayList<String> words = documentKeywords.get(docFile);
+		if (words == null) {
+			words = documentKeywords.containsKey(docFile)
+					? segment.documentTerms(documentIds.get(docFile)) : new ArrayList<String>(kws.size());
+			documentKeywords.put(docFile, words);
+		}
+		words.addAll(kws.keySet());
+		int length = 0;
+		for (Occurrence occ : kws.values())
+			length += occ.frequency;
+		Integer old = documentLengths.get(docFile);
+		documentLengths.put(docFile, old == null ? length : old + length);
+		totalLength += length;
+	}
+	
+	/**
+	 * Records a document that has no keywords, so that it still counts as indexed.
+	 * 
+	 * @param docFile Name of the document
+	 */
+	private void recordEmptyDocument(String docFile) {
+		documentId(docFile);
+		documentKeywords.put(docFile, new ArrayList<String>(0));
+		documentLengths.put(docFile, 0);
+	}
+	
+	/**
+	 * Tombstones an indexed document, so that searches stop returning it, until 
+	 * compactDocument drops its Occurrences from keywordsIndex.
+	 * 
+	 * @param docFile Name of the document
+	 */
+	private void tombstone(String docFile) {
+		ArrayList<String> words = documentKeywords.remove(docFile);
+		int id = documentIds.get(docFile);
+		if (words == null)
+			words = segment.documentTerms(id);	// openIndex gives documents their segment ids
+		tombstones.put(docFile, words);
+		tombstoneIds.set(id);
+		for (String word : words)
+			keywordChanged(word);
+		Integer length = documentLengths.remove(docFile);
+		if (length != null)
+			totalLength -= length;
+	}
+	
+	/**
+	 * Adds a single document to the index. Each of its keywords' Occurrence lists stays in
+	 * descending order of frequency, with the new Occurrence placed by PostingList.insertLast.
+	 * 
+	 * @param docFile Name of the document file to be added
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws IllegalStateException If the document is already indexed
+	 */
+	public void addDocument(String docFile) 
+	throws FileNotFoundException {
+		HashMap<String,Occurrence> kws = loadKeywordsFromDocument(docFile);
+		synchronized (this) {
+			if (documentKeywords.containsKey(docFile))
+				throw new IllegalStateException(docFile + " is already indexed");
+			mergeKeywords(kws);
+			if (kws.isEmpty())
+				recordEmptyDocument(docFile);
+		}
+	}
+	
+	/**
+	 * Re-indexes a single document after it has changed on disk, or adds it if it is not
+	 * indexed yet. Only the Occurrence lists of the document's old and new keywords are touched.
+	 * 
+	 * @param docFile Name of the document file to be re-indexed
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public void updateDocument(String docFile) 
+	throws FileNotFoundException {
+		HashMap<String,Occurrence> kws = loadKeywordsFromDocument(docFile);
+		synchronized (this) {
+			if (documentKeywords.containsKey(docFile)) {
+				tombstone(docFile);
+				compactDocument(docFile);
+			}
+			mergeKeywords(kws);
+			if (kws.isEmpty())
+				recordEmptyDocument(docFile);
+		}
+	}
+	
+	/**
+	 * Removes a single document from the index. The document is tombstoned, so searches stop
+	 * returning it right away, and its Occurrences are compacted out of keywordsIndex on a
+	 * background thread.
+	 * 
+	 * @param docFile Name of the document file to be removed
+	 * @return True if the document was indexed, false otherwise
+	 */
+	public synchronized boolean removeDocument(String docFile) {
+		if (!documentKeywords.containsKey(docFile))
+			return false;
+		tombstone(docFile);
+		if (!compactionPending) {
+			compactionPending = true;
+			if (compactor == null) {
+				compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "lse-compactor");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+			compactor.execute(new Runnable() {
+				public void run() {
+					while (true) {
+						synchronized (LittleSearchEngine.this) {
+							if (tombstones.isEmpty()) {
+								compactionPending = false;
+								return;
+							}
+							compactDocument(tombstones.keySet().iterator().next());
+						}
+					}
+				}
+			});
+		}
+		return true;
+	}
+	
+	/**
+	 * Compacts all removed documents out of keywordsIndex right away, without waiting for
+	 * the background thread.
+	 */
+	public synchronized void compact() {
+		while (!tombstones.isEmpty())
+			compactDocument(tombstones.keySet().iterator().next());
+	}
+	
+	/**
+	 * Drops a tombstoned document's Occurrences from all of its keywords' lists, 
+	 * then clears its tombstone.
+	 * 
+	 * @param docFile Name of the tombstoned document
+	 */
+	private void compactDocument(String docFile) {
+		for (String word : tombstones.get(docFile))
+			compactKeyword(word);
+		tombstones.remove(docFile);
+		tombstoneIds.clear(documentIds.get(docFile));
+	}
+	
+	/**
+	 * Drops the Occurrences of all tombstoned documents from a keyword's list. The list stays
+	 * in descending order of frequency. An emptied list is left in place when the keyword is
+	 * also in the opened segment, so that it is not loaded again from there.
+	 * 
+	 * @param word Keyword
+	 * @return The keyword's compacted posting list, null if the keyword is not indexed
+	 */
+	private PostingList compactKeyword(String word) {
+		PostingList occs = loadOccurrences(keywordsIndex, word);
+		if (occs == null || tombstones.isEmpty())
+			return occs;
+		if (occs.removeAll(tombstoneIds))
+			keywordChanged(word);
+		if (occs.size() == 0 && segment == null) {
+			keywordsIndex.remove(word);
+			return null;
+		}
+		return occs;
+	}
+	
+	/**
+	 * Drops everything derived from a keyword's Occurrence list, after the list has changed.
+	 * 
+	 * @param word Keyword
+	 */
+	private void keywordChanged(String word) {
+		sortedPostings.remove(word);
+		if (resultCache != null)
+			resultCache.invalidate(word);
+	}
+	
+	/**
+	 * Drops everything derived from any Occurrence list, after many lists have changed.
+	 */
+	private void indexChanged() {
+		sortedPostings.clear();
+		if (resultCache != null)
+			resultCache.clear();
+	}
+	
+	/**
+	 * Puts a cache in front of topKSearch (and so top5search) and booleanSearch. Cached results 
+	 * are dropped as soon as the Occurrence list of any keyword in their query changes.
+	 * 
+	 * @param capacity Maximum number of cached results
+	 * @param policy Eviction and admission policy
+	 * @return The cache, for its hit and miss counts
+	 */
+	public synchronized ResultCache enableResultCache(int capacity, ResultCache.Policy policy) {
+		resultCache = new ResultCache(capacity, policy);
+		return resultCache;
+	}
+	
+	/**
+	 * Returns the Occurrence list of a keyword, in descending order of frequency.
+	 * 
+	 * @param word Keyword
+	 * @return Occurrence list of the keyword, null if the keyword is not indexed
+	 */
+	public synchronized ArrayList<Occurrence> getOccurrences(String word) {
+		PostingList occs = compactKeyword(word);
+		return occs == null ? null : occs.toOccurrences(documentNames);
+	}
+	
+	/**
+	 * Returns the posting list of a keyword in the given index, first loading it into the 
+	 * index from the opened segment (if any) when it is not there yet.
+	 * 
+	 * @param index Index to look in (the master index, or one shard of it)
+	 * @param word Keyword
+	 * @return Posting list of the keyword, null if the keyword is not indexed
+	 */
+	private PostingList loadOccurrences(HashMap<String,PostingList> index, String word) {
+		PostingList occs = index.get(word);
+		if (occs == null && segment != null) {
+			occs = segment.postings(word);
+			if (occs != null)
+				index.put(word, occs);
+		}
+		return occs;
+	}
+	
+	/**
+	 * Saves the index, with its noise words, to a binary segment file that can later be 
+	 * reopened with openIndex instead of rebuilding the index with makeIndex. If the file is
+	 * the one the index was opened from, it is replaced atomically and then opened again.
+	 * 
+	 * @param indexFile Name of the segment file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public synchronized void saveIndex(String indexFile) 
+	throws IOException {
+		compact();
+		boolean replacing = false;
+		if (segment != null) {
+			for (int t = 0; t < segment.termCount(); t++)
+				loadOccurrences(keywordsIndex, segment.term(t));
+			File file = new File(indexFile);
+			replacing = file.exists() && Files.isSameFile(file.toPath(), segment.file().toPath());
+		}
+		IndexSegment.write(keywordsIndex, documentNames, documentLengths, noiseWords, indexFile);
+		if (replacing)
+			openIndex(indexFile);
+	}
+	
+	/**
+	 * Opens an index saved with saveIndex, replacing the current index. The file is memory
+	 * mapped, and a keyword's Occurrence list is only decoded the first time it is used.
+	 * 
+	 * @param indexFile Name of the segment file to open
+	 * @throws IOException If the file cannot be read or is not an index segment
+	 */
+	public synchronized void openIndex(String indexFile) 
+	throws IOException {
+		IndexSegment seg = IndexSegment.open(indexFile);
+		keywordsIndex.clear();
+		documentKeywords.clear();
+		indexChanged();
+		tombstones.clear();
+		tombstoneIds.clear();
+		documentLengths.clear();
+		totalLength = 0;
+		documentIds.clear();
+		documentNames.clear();
+		String[] docs = seg.documents();
+		for (int d = 0; d < docs.length; d++) {
+			documentId(docs[d]);
+			documentKeywords.put(docs[d], null);
+			documentLengths.put(docs[d], seg.documentLength(d));
+			totalLength += seg.documentLength(d);
+		}
+		noiseWords.clear();
+		noiseWords.addAll(seg.noiseWords());
+		segment = seg;
+	}
+	
 	/**
 	 * Given a word, returns it as a keyword if it passes the keyword test,
 	 * otherwise returns null. A keyword is any word that, after being stripped of any
@@ -100,33 +508,11 @@ public class LittleSearchEngine {
 	 * @return Keyword (word without trailing punctuation, LOWER CASE)
 	 */
 	public String getKeyword(String word) {
-		int i = 0;
-		char ch = '0';
-		boolean reject = false;
-		String temp = "";
-		if (!Character.isLetterOrDigit(word.charAt(0))) {
+		char[] chars = word.toCharArray();
+		int len = KeywordScanner.keywordLength(chars, chars.length);
+		if (len < 0)
 			return null;
-		}
-		while (i < word.length()) {
-			ch = word.charAt(i);
-			if (!Character.isLetterOrDigit(ch)) {
-				for (int j = i; j < word.length(); j++) {
-					ch = word.charAt(j);
-					if (Character.isLetterOrDigit(ch) == true) {
-						reject = true;
-						break;
-					}
-				}
-				if (reject)
-					return null;
-				else
-					break;
-			}
-			else {
-				temp += Character.toLowerCase(ch) + "";
-				i++;
-			}
-		}
+		String temp = new String(chars, 0, len);
 		if (noiseWords.contains(temp))
 			return null;
 		return temp;
@@ -138,6 +524,10 @@ public class LittleSearchEngine {
 	 * 0..n-2 in the list are already in the correct order. Insertion is done by
 	 * first finding the correct spot using binary search, then inserting at that spot.
 	 * 
+	 * The index itself no longer calls this method: posting lists are kept in PostingList and
+	 * placed by PostingList.insertLast, which does the same search. It is kept only as the
+	 * assignment's test hook.
+	 * 
 	 * @param occs List of Occurrences
 	 * @return Sequence of mid point indexes in the input list checked by the binary search process,
 	 *         null if the size of the input list is 1. This returned array list is only used to test
@@ -182,7 +572,7 @@ public class LittleSearchEngine {
 	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
 	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
 	 */
-	public void makeIndex(String docsFile, String noiseWordsFile) 
+	public synchronized void makeIndex(String docsFile, String noiseWordsFile) 
 	throws FileNotFoundException {
 		// load noise words to hash table
 		Scanner sc = new Scanner(new File(noiseWordsFile));
@@ -201,6 +591,196 @@ public class LittleSearchEngine {
 		sc.close();
 	}
 	
+	/**
+	 * Parallel version of makeIndex. Documents are tokenized by a pool of worker threads
+	 * in batches, and each batch is then merged into keywordsIndex by one task per shard, 
+	 * where a keyword belongs to shard (hash mod number of shards). The tokenizing task of a
+	 * document also splits its keywords by shard, so a shard's merge task only visits its own
+	 * keywords. Batches are pipelined: while a batch is merged, the next batch is already being
+	 * tokenized, and a shard only waits for its own merge of the previous batch. Since a shard
+	 * merges the documents of a batch in the order they appear in the docs file, every 
+	 * Occurrence list ends up exactly the same as the one built by makeIndex.
+	 * 
+	 * If a document cannot be read, the batches before it are still merged and published, 
+	 * so that, as with makeIndex, the index is left holding a prefix of the documents.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of worker threads (and shards) to use
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public synchronized void makeIndex(String docsFile, String noiseWordsFile, final int threads) 
+	throws FileNotFoundException {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be at least 1");
+		
+		// load noise words to hash table
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) 
+			noiseWords.add(sc.next());
+		sc.close();
+		
+		ArrayList<String> docs = new ArrayList<String>();
+		sc = new Scanner(new File(docsFile));
+		while (sc.hasNext())
+			docs.add(sc.next());
+		sc.close();
+		
+		// documents are recorded while the previous batch is being merged, 
+		// so no removed document may be left to compact
+		compact();
+		
+		// shard i holds exactly the keywords already in keywordsIndex that hash to i
+		ArrayList<HashMap<String,PostingList>> shards = new ArrayList<HashMap<String,PostingList>>(threads);
+		for (int i = 0; i < threads; i++)
+			shards.add(new HashMap<String,PostingList>());
+		for (Map.Entry<String,PostingList> e : keywordsIndex.entrySet())
+			shards.get(shardOf(e.getKey(), threads)).put(e.getKey(), e.getValue());
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<?>> merges = new ArrayList<Future<?>>(threads);
+		try {
+			int batchSize = threads * 8;
+			ArrayList<Future<ShardedKeywords>> loads = tokenize(pool, docs, 0, batchSize, threads);
+			for (int start = 0; start < docs.size(); start += batchSize) {
+				// queue the next batch before waiting for this one, so the pool stays busy
+				ArrayList<Future<ShardedKeywords>> next = tokenize(pool, docs, start + batchSize, batchSize, threads);
+				final ArrayList<ShardedKeywords> batch = new ArrayList<ShardedKeywords>(loads.size());
+				for (Future<ShardedKeywords> f : loads)
+					batch.add(await(f));
+				final int[] batchIds = new int[batch.size()];
+				for (int d = 0; d < batch.size(); d++) {
+					HashMap<String,Occurrence> kws = batch.get(d).keywords;
+					recordDocument(kws);
+					if (!kws.isEmpty())
+						batchIds[d] = documentIds.get(kws.values().iterator().next().document);
+				}
+				
+				// merge the batch, one task per shard, each after its merge of the previous batch
+				for (Future<?> f : merges)
+					await(f);
+				merges.clear();
+				for (int i = 0; i < threads; i++) {
+					final int shard = i;
+					final HashMap<String,PostingList> index = shards.get(i);
+					merges.add(pool.submit(new Runnable() {
+						public void run() {
+							for (int d = 0; d < batch.size(); d++) {
+								String[] words = batch.get(d).words[shard];
+								int[] freqs = batch.get(d).freqs[shard];
+								for (int w = 0; w < words.length; w++)
+									mergeKeyword(index, words[w], batchIds[d], freqs[w]);
+							}
+						}
+					}));
+				}
+				loads = next;
+			}
+			for (Future<?> f : merges)
+				await(f);
+		} finally {
+			// the documents recorded so far have been merged into existing posting lists,
+			// so their new keywords have to be published too, once their merges are done
+			finish(merges);
+			pool.shutdown();
+			for (HashMap<String,PostingList> shard : shards)
+				keywordsIndex.putAll(shard);
+			indexChanged();
+		}
+	}
+	
+	/**
+	 * Waits for tasks to finish, without reporting their failures, which are either reported
+	 * by await or hidden by the failure that is already being thrown.
+	 * 
+	 * @param tasks Tasks to wait for
+	 */
+	private static void finish(ArrayList<Future<?>> tasks) {
+		boolean interrupted = false;
+		for (Future<?> f : tasks) {
+			for (;;) {
+				try {
+					f.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	/**
+	 * Keywords of one document, also split by the shard they are merged into
+	 */
+	private static class ShardedKeywords {
+		final HashMap<String,Occurrence> keywords;
+		final String[][] words;
+		final int[][] freqs;
+		
+		ShardedKeywords(HashMap<String,Occurrence> keywords, int shards) {
+			this.keywords = keywords;
+			int[] counts = new int[shards];
+			for (String word : keywords.keySet())
+				counts[shardOf(word, shards)]++;
+			words = new String[shards][];
+			freqs = new int[shards][];
+			for (int i = 0; i < shards; i++) {
+				words[i] = new String[counts[i]];
+				freqs[i] = new int[counts[i]];
+				counts[i] = 0;
+			}
+			for (Map.Entry<String,Occurrence> e : keywords.entrySet()) {
+				int i = shardOf(e.getKey(), shards);
+				words[i][counts[i]] = e.getKey();
+				freqs[i][counts[i]++] = e.getValue().frequency;
+			}
+		}
+	}
+	
+	/**
+	 * Queues the tokenizing of a batch of documents.
+	 * 
+	 * @return One future per document of the batch, empty if start is past the last document
+	 */
+	private ArrayList<Future<ShardedKeywords>> tokenize(ExecutorService pool, ArrayList<String> docs, 
+			int start, int batchSize, final int shards) {
+		int end = Math.min(start + batchSize, docs.size());
+		ArrayList<Future<ShardedKeywords>> loads = new ArrayList<Future<ShardedKeywords>>(Math.max(end - start, 0));
+		for (int d = start; d < end; d++) {
+			final String docFile = docs.get(d);
+			loads.add(pool.submit(new Callable<ShardedKeywords>() {
+				public ShardedKeywords call() throws FileNotFoundException {
+					return new ShardedKeywords(loadKeywordsFromDocument(docFile), shards);
+				}
+			}));
+		}
+		return loads;
+	}
+	
+	private static int shardOf(String word, int shards) {
+		return (word.hashCode() & 0x7fffffff) % shards;
+	}
+	
+	private static <T> T await(Future<T> f) throws FileNotFoundException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while indexing", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof FileNotFoundException)
+				throw (FileNotFoundException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+	
 	/**
 	 * Search result for "kw1 or kw2". A document is in the result set if kw1 or kw2 occurs in that
 	 * document. Result set is arranged in descending order of document frequencies. 
@@ -222,90 +802,339 @@ public class LittleSearchEngine {
 	 *         returns null or empty array list.
 	 */
 	public ArrayList<String> top5search(String kw1, String kw2) {
-		if(!keywordsIndex.containsKey(kw1) && !keywordsIndex.containsKey(kw2))
+		return topKSearch(Arrays.asList(kw1, kw2), 5);
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwn", generalizing top5search to any number of
+	 * keywords and any result size. The keywords' Occurrence lists are merged with a heap holding 
+	 * the current head of each list, so only as many Occurrences are read as it takes to find 
+	 * k distinct documents, however long the lists are. 
+	 * 
+	 * Ties in frequency values are broken in favor of the earlier keyword in the list, and 
+	 * a matching document only appears once in the result, at its highest frequency.
+	 * 
+	 * @param keywords Keywords to search for
+	 * @param k Maximum number of documents in the result
+	 * @return List of documents in which any of the keywords occurs, arranged in descending order of
+	 *         frequencies. The result size is limited to k documents. If there are no matches, 
+	 *         returns null.
+	 */
+	public synchronized ArrayList<String> topKSearch(List<String> keywords, int k) {
+		String key = null;
+		if (resultCache != null) {
+			StringBuilder sb = new StringBuilder("top ").append(k);
+			for (String kw : keywords)
+				sb.append('\0').append(kw);
+			key = sb.toString();
+			ArrayList<String> cached = resultCache.get(key);
+			if (cached != null)
+				return cached == NO_MATCH ? null : new ArrayList<String>(cached);
+		}
+		ArrayList<String> result = mergeTopK(keywords, k);
+		if (resultCache != null)
+			resultCache.put(key, keywords, result == null ? NO_MATCH : new ArrayList<String>(result));
+		return result;
+	}
+	
+	private ArrayList<String> mergeTopK(List<String> keywords, int k) {
+		final ArrayList<PostingList> lists = new ArrayList<PostingList>(keywords.size());
+		// heap entries are {keyword number, position in its list}
+		PriorityQueue<int[]> heap = new PriorityQueue<int[]>(Math.max(1, keywords.size()), new Comparator<int[]>() {
+			public int compare(int[] a, int[] b) {
+				int fa = lists.get(a[0]).freq(a[1]);
+				int fb = lists.get(b[0]).freq(b[1]);
+				if (fa != fb)
+					return fa > fb ? -1 : 1;
+				return a[0] - b[0];
+			}
+		});
+		for (String kw : keywords) {
+			PostingList occs = compactKeyword(kw);
+			lists.add(occs);
+			if (occs != null && occs.size() > 0)
+				heap.add(new int[] { lists.size() - 1, 0 });
+		}
+		if (heap.isEmpty())
 			return null;
 		
-		ArrayList<String> list = new ArrayList<String>();
-		
-		
-		boolean s1 = false;
-		boolean	s2 = false;
-		
-		int kw1Size = 0;
-		int kw2Size = 0;
-		
-
-		if(keywordsIndex.containsKey(kw2) && keywordsIndex.containsKey(kw1)){
-			kw1Size = (keywordsIndex.get(kw1)).size();
-			kw2Size = (keywordsIndex.get(kw2)).size();
+		ArrayList<String> result = new ArrayList<String>(Math.min(k, 16));
+		HashSet<Integer> seen = new HashSet<Integer>();
+		while (result.size() < k && !heap.isEmpty()) {
+			int[] top = heap.poll();
+			PostingList occs = lists.get(top[0]);
+			int doc = occs.doc(top[1]);
+			if (seen.add(doc))
+				result.add(documentNames.get(doc));
+			if (++top[1] < occs.size())
+				heap.add(top);
 		}
-		if(!keywordsIndex.containsKey(kw1)){
-			s2 = true;
-			kw2Size = (keywordsIndex.get(kw2)).size();
+		return result;
+	}
+	
+	/**
+	 * Boolean search for a query of the form "kw1 AND kw2 AND NOT kw3 ...". Keywords are
+	 * separated by AND, and a keyword preceded by NOT must not occur in a matching document.
+	 * See booleanSearch(List,List) for how the result is arranged.
+	 * 
+	 * @param query Boolean query
+	 * @return List of documents that match the query
+	 * @throws IllegalArgumentException If the query has no keyword without NOT
+	 */
+	public ArrayList<String> booleanSearch(String query) {
+		ArrayList<String> required = new ArrayList<String>();
+		ArrayList<String> excluded = new ArrayList<String>();
+		boolean not = false;
+		for (String tok : query.trim().split("\\s+")) {
+			if (tok.equals("AND"))
+				continue;
+			if (tok.equals("NOT")) {
+				not = !not;
+				continue;
+			}
+			if (not)
+				excluded.add(tok.toLowerCase());
+			else
+				required.add(tok.toLowerCase());
+			not = false;
 		}
-		
-		if(!keywordsIndex.containsKey(kw2)){
-			s1 = true;
-			kw1Size = (keywordsIndex.get(kw1)).size();
+		return booleanSearch(required, excluded);
+	}
+	
+	/**
+	 * Search result for "kw1 and kw2 and ... and not kx1 and not kx2 ...". A document is in the 
+	 * result set if all required keywords occur in it, and none of the excluded ones do. Result set 
+	 * is arranged in descending order of the total frequency of the required keywords, with ties 
+	 * in the order the documents were first indexed.
+	 * 
+	 * Lists are intersected on their document-id sorted views, starting from the shortest
+	 * required list and galloping ahead in the others, so common keywords are not scanned in full.
+	 * 
+	 * @param required Keywords that must all occur in a matching document
+	 * @param excluded Keywords that must not occur in a matching document
+	 * @return List of matching documents, empty if there are none
+	 * @throws IllegalArgumentException If there are no required keywords
+	 */
+	public synchronized ArrayList<String> booleanSearch(List<String> required, List<String> excluded) {
+		if (required.isEmpty())
+			throw new IllegalArgumentException("At least one keyword must be required");
+		if (resultCache != null) {
+			// the result does not depend on the order of the keywords, or on repeats
+			TreeSet<String> req = new TreeSet<String>(required);
+			TreeSet<String> exc = new TreeSet<String>(excluded);
+			StringBuilder sb = new StringBuilder("and");
+			for (String kw : req)
+				sb.append('\0').append(kw);
+			sb.append("\0not");
+			for (String kw : exc)
+				sb.append('\0').append(kw);
+			String key = sb.toString();
+			ArrayList<String> cached = resultCache.get(key);
+			if (cached != null)
+				return new ArrayList<String>(cached);
+			req.addAll(exc);
+			ArrayList<String> result = intersect(required, excluded);
+			resultCache.put(key, req, new ArrayList<String>(result));
+			return result;
 		}
-		
-		
-		int counter = 0;
-		int counterA = 0;
-		int counterB = 0;
-		
-		while ( counter < 10 && s1 == false && s2 == false ) {
-				int kw1Freq = keywordsIndex.get(kw1).get(counterA).frequency;
-				int kw2Freq = keywordsIndex.get(kw2).get(counterB).frequency;
-				if(kw1Freq >= kw2Freq){
-					list.add(keywordsIndex.get(kw1).get(counterA).document);
-					counterA++;
-					counter++;
-				}
-				if(kw1Freq < kw2Freq){
-					list.add(keywordsIndex.get(kw2).get(counterB).document);
-					counterB++;
-					counter++;
-				}
-				
-				if (counterA == kw1Size)
-					s2 = true;
-				if (counterB == kw2Size)
-					s1 = true;
-				
+		return intersect(required, excluded);
+	}
+	
+	private ArrayList<String> intersect(List<String> required, List<String> excluded) {
+		SortedPostings[] req = new SortedPostings[required.size()];
+		for (int r = 0; r < req.length; r++) {
+			req[r] = sortedPostings(required.get(r));
+			if (req[r] == null)
+				return new ArrayList<String>();
 		}
+		ArrayList<SortedPostings> exc = new ArrayList<SortedPostings>(excluded.size());
+		for (String kw : excluded) {
+			SortedPostings sp = sortedPostings(kw);
+			if (sp != null)
+				exc.add(sp);
+		}
+		Arrays.sort(req, new Comparator<SortedPostings>() {
+			public int compare(SortedPostings a, SortedPostings b) {
+				return a.size() - b.size();
+			}
+		});
 		
-		
-		if (counter < 10 && s2 == true && counterB < kw2Size){
-			while (counter < 10 && counterB < kw2Size){
-				list.add(keywordsIndex.get(kw2).get(counterB).document);
-				counterB++;
-				counter++;
+		SortedPostings lead = req[0];
+		int[] reqPos = new int[req.length];
+		int[] excPos = new int[exc.size()];
+		ArrayList<long[]> hits = new ArrayList<long[]>();
+		int i = 0;
+		outer:
+		while (i < lead.size()) {
+			int doc = lead.docs[i];
+			long total = lead.freqs[i];
+			for (int r = 1; r < req.length; r++) {
+				int p = req[r].advance(reqPos[r], doc);
+				reqPos[r] = p;
+				if (p == req[r].size())
+					break outer;
+				if (req[r].docs[p] != doc) {
+					i = lead.advance(i, req[r].docs[p]);
+					continue outer;
+				}
+				total += req[r].freqs[p];
+			}
+			i++;
+			for (int x = 0; x < excPos.length; x++) {
+				int p = exc.get(x).advance(excPos[x], doc);
+				excPos[x] = p;
+				if (p < exc.get(x).size() && exc.get(x).docs[p] == doc)
+					continue outer;
 			}
+			hits.add(new long[] { total, doc });
 		}
 		
-		if (counter < 10 && s1 == true && counterA < kw1Size){
-			while (counter < 10 && counterA < kw1Size){
-				list.add(keywordsIndex.get(kw1).get(counterA).document);
-				counterA++;
-				counter++;
+		Collections.sort(hits, new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				if (a[0] != b[0])
+					return a[0] > b[0] ? -1 : 1;
+				return Long.compare(a[1], b[1]);
 			}
+		});
+		ArrayList<String> result = new ArrayList<String>(hits.size());
+		for (long[] hit : hits)
+			result.add(documentNames.get((int) hit[1]));
+		return result;
+	}
+	
+	/**
+	 * Returns the document-id sorted view of a keyword's Occurrence list, building it if needed.
+	 * 
+	 * @param word Keyword
+	 * @return The view, or null if the keyword is not indexed
+	 */
+	private SortedPostings sortedPostings(String word) {
+		SortedPostings sp = sortedPostings.get(word);
+		if (sp == null) {
+			PostingList occs = compactKeyword(word);
+			if (occs == null || occs.size() == 0)
+				return null;
+			sp = new SortedPostings(occs);
+			sortedPostings.put(word, sp);
 		}
-		
-
+		return sp;
+	}
 	
-		ArrayList<String> tempList = new ArrayList<String>(1);
-		String tempStr = "";
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwn", ranked by relevance instead of by raw
+	 * frequency. A document's score is the sum of the scorer's score for each keyword that occurs
+	 * in it, so that, for instance with TfIdfScorer or Bm25Scorer, rare keywords count for more
+	 * and long documents do not win just for being long. Ties in score are broken in favor of
+	 * the document indexed first.
+	 * 
+	 * Documents are visited in document id order with the WAND strategy: using the scorer's upper 
+	 * bound for each keyword, documents whose keywords cannot add up to more than the current 
+	 * k-th best score are skipped over without being scored.
+	 * 
+	 * @param keywords Keywords to search for
+	 * @param k Maximum number of documents in the result
+	 * @param scorer Scoring function
+	 * @return List of documents in which any of the keywords occurs, arranged in descending order
+	 *         of score. The result size is limited to k documents. If there are no matches, 
+	 *         returns null.
+	 */
+	public synchronized ArrayList<String> rankedSearch(List<String> keywords, int k, Scorer scorer) {
+		int docCount = documentLengths.size();
+		double avgLength = docCount == 0 ? 1 : Math.max(1.0, (double) totalLength / docCount);
+		ArrayList<SortedPostings> terms = new ArrayList<SortedPostings>(keywords.size());
+		ArrayList<Double> bounds = new ArrayList<Double>(keywords.size());
+		for (String kw : keywords) {
+			SortedPostings sp = sortedPostings(kw);
+			if (sp == null)
+				continue;
+			terms.add(sp);
+			bounds.add(scorer.upperBound(sp.maxFreq, sp.size(), docCount, avgLength));
+		}
+		if (terms.isEmpty() || k < 1)
+			return terms.isEmpty() ? null : new ArrayList<String>();
 		
-		for(int i=0; i < list.size(); i++){
-			tempStr = list.get(i);
-			if(!tempList.contains(tempStr))
-				tempList.add(tempStr);
-			if ((tempList.size() <= 5) == false)
+		int n = terms.size();
+		// cursors, kept sorted by current document id (exhausted cursors last)
+		final SortedPostings[] cur = terms.toArray(new SortedPostings[n]);
+		final int[] pos = new int[n];
+		Integer[] order = new Integer[n];
+		double[] ub = new double[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+			ub[i] = bounds.get(i);
+		}
+		Comparator<Integer> byDoc = new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(docAt(cur[a], pos[a]), docAt(cur[b], pos[b]));
+			}
+		};
+		
+		// min-heap of {score, doc id} holding the best k documents so far
+		PriorityQueue<double[]> top = new PriorityQueue<double[]>(k, new Comparator<double[]>() {
+			public int compare(double[] a, double[] b) {
+				if (a[0] != b[0])
+					return a[0] < b[0] ? -1 : 1;
+				return Double.compare(b[1], a[1]);
+			}
+		});
+		while (true) {
+			Arrays.sort(order, byDoc);
+			double threshold = top.size() == k ? top.peek()[0] : -1;
+			
+			// find the pivot: the first cursor at which the bounds add up to more than the threshold
+			double sum = 0;
+			int pivot = -1;
+			for (int i = 0; i < n; i++) {
+				int t = order[i];
+				if (pos[t] == cur[t].size())
+					break;
+				sum += ub[t];
+				if (sum > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			if (pivot < 0)
 				break;
+			int pivotDoc = cur[order[pivot]].docs[pos[order[pivot]]];
+			
+			if (docAt(cur[order[0]], pos[order[0]]) == pivotDoc) {
+				// all cursors up to the pivot are on the pivot document, so score it
+				String name = documentNames.get(pivotDoc);
+				Integer length = documentLengths.get(name);
+				double score = 0;
+				for (int i = 0; i < n; i++) {
+					int t = order[i];
+					if (docAt(cur[t], pos[t]) != pivotDoc)
+						break;
+					score += scorer.score(cur[t].freqs[pos[t]], length == null ? 0 : length, cur[t].size(), docCount, avgLength);
+					pos[t]++;
+				}
+				if (top.size() < k)
+					top.add(new double[] { score, pivotDoc });
+				else if (score > threshold) {
+					top.poll();
+					top.add(new double[] { score, pivotDoc });
+				}
+			}
+			else {
+				// no document before the pivot document can make the top k
+				for (int i = 0; i < pivot; i++) {
+					int t = order[i];
+					pos[t] = cur[t].advance(pos[t], pivotDoc);
+				}
+			}
 		}
+		
+		ArrayList<double[]> ranked = new ArrayList<double[]>(top);
+		Collections.sort(ranked, Collections.reverseOrder(top.comparator()));
+		ArrayList<String> result = new ArrayList<String>(ranked.size());
+		for (double[] hit : ranked)
+			result.add(documentNames.get((int) hit[1]));
+		return result;
+	}
 	
-		return tempList;
-	
+	private static int docAt(SortedPostings sp, int pos) {
+		return pos < sp.size() ? sp.docs[pos] : Integer.MAX_VALUE;
 	}
 }
@@ -0,0 +1,326 @@
+package friends;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Friendship graph kept in a memory-mapped file instead of the heap. MappedGraph.write saves a
+ * CsrGraph in a flat binary layout, and MappedGraph.open maps the file read-only and reads the
+ * graph in place: nothing is copied onto the heap except the school names, and a member name is
+ * only decoded when it is asked for. The operating system pages the file in as it is touched, and
+ * every JVM that opens the same file shares the same pages, so a large graph is loaded once per
+ * machine instead of once per process. Files larger than 2GB are mapped in 1GB chunks.
+ *
+ * File layout, all numbers little-endian and every section starting at a multiple of 8 bytes:
+ * a header (magic "FGR1", version, number of members n, number of friend entries m, number of
+ * schools, size of the name table, then the position of each section and the file length),
+ * followed by the sections
+ * <ul>
+ * <li>offsets: n+1 ints, as in CsrGraph</li>
+ * <li>neighbors: m ints, as in CsrGraph</li>
+ * <li>schools: n ints, as in CsrGraph</li>
+ * <li>name starts: n+1 longs, positions in the name bytes of each member's UTF-8 name</li>
+ * <li>name bytes</li>
+ * <li>school starts: schools+1 longs, and school bytes, the same for school names</li>
+ * <li>name table: open-addressing hash table of member index + 1 (0 for empty) keyed by
+ *     the UTF-8 bytes of the name</li>
+ * </ul>
+ */
+public class MappedGraph extends FriendGraph {
+
+	private static final int MAGIC = 0x31524746;	// "FGR1" read as a little-endian int
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 96;
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	// mapped file, in chunks of 1 << CHUNK_BITS bytes
+	private final ByteBuffer[] chunks;
+
+	private final int n, m, tableMask;
+	private final long offsets, neighbors, schools, nameStarts, nameBytes, table;
+	private final String[] schoolNames;
+	private final HashMap<String,Integer> schoolMap;
+
+	private MappedGraph(ByteBuffer[] chunks) throws IOException {
+		this.chunks = chunks;
+		if (chunks.length == 0 || chunks[0].limit() < HEADER_SIZE || getInt(0) != MAGIC)
+			throw new IOException("Not a graph file");
+		if (getInt(4) != VERSION)
+			throw new IOException("Unsupported graph file version " + getInt(4));
+		n = getInt(8);
+		m = getInt(12);
+		int schoolCount = getInt(16);
+		tableMask = getInt(20) - 1;
+		offsets = getLong(24);
+		neighbors = getLong(32);
+		schools = getLong(40);
+		nameStarts = getLong(48);
+		nameBytes = getLong(56);
+		long schoolStarts = getLong(64);
+		long schoolBytes = getLong(72);
+		table = getLong(80);
+		long length = 0;
+		for (ByteBuffer chunk : chunks)
+			length += chunk.limit();
+		if (getLong(88) != length)
+			throw new IOException("Graph file is truncated");
+
+		schoolNames = new String[schoolCount];
+		schoolMap = new HashMap<String,Integer>();
+		for (int s = 0; s < schoolCount; s++) {
+			schoolNames[s] = decode(schoolBytes, getLong(schoolStarts + 8L * s), getLong(schoolStarts + 8L * (s + 1)));
+			schoolMap.put(schoolNames[s], s);
+		}
+	}
+
+	/**
+	 * Maps a file saved with write. The mapping stays valid after this returns and is released
+	 * when the MappedGraph is garbage collected; the file must not be changed while it is mapped.
+	 *
+	 * @param file File name
+	 * @return Graph read from the mapped file
+	 * @throws IOException If the file cannot be read or is not a graph file
+	 */
+	public static MappedGraph open(String file) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+			for (int i = 0; i < chunks.length; i++) {
+				long start = (long) i << CHUNK_BITS;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, CHUNK_MASK + 1))
+						.order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return new MappedGraph(chunks);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Saves a graph in the layout open maps.
+	 *
+	 * @param g Graph to save
+	 * @param file File name
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(CsrGraph g, String file) throws IOException {
+		int n = g.size();
+		byte[][] names = new byte[n][];
+		for (int v = 0; v < n; v++)
+			names[v] = g.names[v].getBytes(StandardCharsets.UTF_8);
+		int tableSize = Integer.highestOneBit(Math.max(2 * n, 2) - 1) << 1;
+		int[] table = new int[tableSize];
+		for (int v = 0; v < n; v++) {
+			int h = hash(names[v]) & (tableSize - 1);
+			while (table[h] != 0)
+				h = (h + 1) & (tableSize - 1);
+			table[h] = v + 1;
+		}
+
+		FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			Output out = new Output(channel);
+			out.skip(HEADER_SIZE);
+			long offsets = out.section();
+			for (int x : g.offsets)
+				out.putInt(x);
+			long neighbors = out.section();
+			for (int x : g.neighbors)
+				out.putInt(x);
+			long schools = out.section();
+			for (int x : g.schools)
+				out.putInt(x);
+			long nameStarts = out.section();
+			long start = 0;
+			for (byte[] name : names) {
+				out.putLong(start);
+				start += name.length;
+			}
+			out.putLong(start);
+			long nameBytes = out.section();
+			for (byte[] name : names)
+				out.put(name);
+			byte[][] schoolNames = new byte[g.schoolNames.length][];
+			for (int s = 0; s < schoolNames.length; s++)
+				schoolNames[s] = g.schoolNames[s].getBytes(StandardCharsets.UTF_8);
+			long schoolStarts = out.section();
+			start = 0;
+			for (byte[] school : schoolNames) {
+				out.putLong(start);
+				start += school.length;
+			}
+			out.putLong(start);
+			long schoolBytes = out.section();
+			for (byte[] school : schoolNames)
+				out.put(school);
+			long tableStart = out.section();
+			for (int x : table)
+				out.putInt(x);
+			long length = out.section();
+			out.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(g.neighbors.length)
+					.putInt(schoolNames.length).putInt(tableSize)
+					.putLong(offsets).putLong(neighbors).putLong(schools).putLong(nameStarts)
+					.putLong(nameBytes).putLong(schoolStarts).putLong(schoolBytes).putLong(tableStart)
+					.putLong(length);
+			header.flip();
+			while (header.hasRemaining())
+				channel.write(header, header.position());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Buffered little-endian writes to a channel, keeping track of the position
+	 */
+	private static class Output {
+		final FileChannel channel;
+		final ByteBuffer buf = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		long position;
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void putInt(int x) throws IOException {
+			if (buf.remaining() < 4)
+				flush();
+			buf.putInt(x);
+			position += 4;
+		}
+
+		void putLong(long x) throws IOException {
+			if (buf.remaining() < 8)
+				flush();
+			buf.putLong(x);
+			position += 8;
+		}
+
+		void put(byte[] b) throws IOException {
+			for (int i = 0; i < b.length; ) {
+				if (!buf.hasRemaining())
+					flush();
+				int len = Math.min(b.length - i, buf.remaining());
+				buf.put(b, i, len);
+				i += len;
+			}
+			position += b.length;
+		}
+
+		void skip(int len) throws IOException {
+			for (int i = 0; i < len; i++) {
+				if (!buf.hasRemaining())
+					flush();
+				buf.put((byte) 0);
+			}
+			position += len;
+		}
+
+		/**
+		 * Pads to a multiple of 8 bytes, so that no int or long of the next section
+		 * straddles two mapped chunks.
+		 *
+		 * @return Position of the next section
+		 */
+		long section() throws IOException {
+			skip((int) (-position & 7));
+			return position;
+		}
+
+		void flush() throws IOException {
+			buf.flip();
+			while (buf.hasRemaining())
+				channel.write(buf);
+			buf.clear();
+		}
+	}
+
+	/**
+	 * FNV-1a hash of a name's UTF-8 bytes, with the high bits folded in for the power-of-two table
+	 */
+	private static int hash(byte[] b) {
+		int h = 0x811c9dc5;
+		for (byte x : b)
+			h = (h ^ (x & 0xff)) * 0x01000193;
+		return h ^ (h >>> 16);
+	}
+
+	private int getInt(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].getInt((int) (pos & CHUNK_MASK));
+	}
+
+	private long getLong(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].getLong((int) (pos & CHUNK_MASK));
+	}
+
+	private byte getByte(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+	}
+
+	private String decode(long section, long from, long to) {
+		byte[] b = new byte[(int) (to - from)];
+		for (int i = 0; i < b.length; i++)
+			b[i] = getByte(section + from + i);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public int firstFriend(int v) {
+		return getInt(offsets + 4L * v);
+	}
+
+	public int friend(int e) {
+		return getInt(neighbors + 4L * e);
+	}
+
+	public String name(int v) {
+		return decode(nameBytes, getLong(nameStarts + 8L * v), getLong(nameStarts + 8L * (v + 1)));
+	}
+
+	public int school(int v) {
+		return getInt(schools + 4L * v);
+	}
+
+	public int schoolCount() {
+		return schoolNames.length;
+	}
+
+	public String schoolName(int s) {
+		return schoolNames[s];
+	}
+
+	public int index(String name) {
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		for (int h = hash(key) & tableMask; ; h = (h + 1) & tableMask) {
+			int v = getInt(table + 4L * h) - 1;
+			if (v == -1)
+				return -1;
+			long from = getLong(nameStarts + 8L * v);
+			if (getLong(nameStarts + 8L * (v + 1)) - from != key.length)
+				continue;
+			int i = 0;
+			while (i < key.length && getByte(nameBytes + from + i) == key[i])
+				i++;
+			if (i == key.length)
+				return v;
+		}
+	}
+
+	public int schoolId(String school) {
+		Integer s = schoolMap.get(school);
+		return s == null ? -1 : s;
+	}
+}
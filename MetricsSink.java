@@ -0,0 +1,24 @@
+package friends;
+
+/**
+ * Receives one record per instrumented Friends call, once a sink is set with
+ * Friends.setMetricsSink. Calls are recorded on the calling thread, so record must be
+ * thread-safe and quick.
+ */
+public interface MetricsSink {
+
+	/**
+	 * Records one call.
+	 *
+	 * @param operation "shortestChain", "cliques", "connectors" or "biconnectivity"
+	 * @param detail Arguments of the call, such as "sam -> jane" or a school name
+	 * @param nanos Latency of the call, in nanoseconds
+	 * @param nodesVisited Number of members the call reached
+	 * @param edgesRelaxed Number of friendships the call looked at
+	 * @param frontierPeak Largest breadth-first frontier or depth-first stack of the call
+	 * @param scratchBytes Bytes of scratch arrays allocated for the call; 0 if it reused
+	 *        earlier ones
+	 */
+	void record(String operation, String detail, long nanos, long nodesVisited, long edgesRelaxed,
+			long frontierPeak, long scratchBytes);
+}
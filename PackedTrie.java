@@ -0,0 +1,260 @@
+package trie;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Frozen trie packed into parallel arrays, for completion queries over large dictionaries.
+ *
+ * Nodes are numbered in breadth-first order, with the children of each node sorted by first
+ * character, so the children of node v are the nodes childStart[v] .. childStart[v+1]-1 and
+ * are found by binary search on their first characters. The words are kept in sorted order in
+ * leafWord, which lists the leaves in depth-first order; the leaves under a node are then the
+ * range of leafWord starting at leafStart[v], and a completion list is a copy of that range.
+ * A node stands for the characters up to end[v] of any word under it, and starts one past the
+ * end of its parent.
+ *
+ * A node takes 14 bytes and a word 4 more, against two objects per node for TrieNode and
+ * Indexes. Character positions are ints, so words may be longer than 32767 characters if the
+ * trie is built straight from the words with build.
+ */
+public class PackedTrie {
+
+	final String[] allWords;
+
+	/**
+	 * Children of node v are childStart[v] .. childStart[v+1]-1; node 0 is the root
+	 */
+	final int[] childStart;
+
+	/**
+	 * Index in the word of the last character node v stands for, -1 for the root
+	 */
+	final int[] end;
+
+	/**
+	 * First character node v stands for
+	 */
+	final char[] firstChar;
+
+	/**
+	 * Position in leafWord of the first word under node v
+	 */
+	final int[] leafStart;
+
+	/**
+	 * Word indexes in sorted order of the words
+	 */
+	final int[] leafWord;
+
+	private PackedTrie(String[] allWords, int[] childStart, int[] end, char[] firstChar, int[] leafStart,
+			int[] leafWord) {
+		this.allWords = allWords;
+		this.childStart = childStart;
+		this.end = end;
+		this.firstChar = firstChar;
+		this.leafStart = leafStart;
+		this.leafWord = leafWord;
+	}
+
+	/**
+	 * Packs a trie built by Trie.buildTrie.
+	 *
+	 * @param root Root of trie
+	 * @param allWords Array of words that have been inserted into the trie
+	 * @return Packed trie
+	 */
+	public static PackedTrie freeze(TrieNode root, final String[] allWords) {
+		int n = 1;
+		TrieNode[] nodes = new TrieNode[Math.max(2 * allWords.length, 1)];
+		nodes[0] = root;
+		int[] childStart = new int[nodes.length + 1];
+		Comparator<TrieNode> byFirstChar = new Comparator<TrieNode>() {
+			public int compare(TrieNode a, TrieNode b) {
+				return Character.compare(allWords[a.substr.wordIndex].charAt(a.substr.startIndex),
+						allWords[b.substr.wordIndex].charAt(b.substr.startIndex));
+			}
+		};
+		for (int v = 0; v < n; v++) {
+			childStart[v] = n;
+			int from = n;
+			for (TrieNode ptr = nodes[v].firstChild; ptr != null; ptr = ptr.sibling)
+				nodes[n++] = ptr;
+			Arrays.sort(nodes, from, n, byFirstChar);
+		}
+		childStart[n] = n;
+
+		int[] end = new int[n];
+		char[] firstChar = new char[n];
+		end[0] = -1;
+		for (int v = 1; v < n; v++) {
+			end[v] = nodes[v].substr.endIndex;
+			firstChar[v] = allWords[nodes[v].substr.wordIndex].charAt(nodes[v].substr.startIndex);
+		}
+
+		// count the leaves under each node from the bottom up, then hand out
+		// consecutive ranges of leaves to the children of each node from the top down
+		int[] leaves = new int[n];
+		for (int v = n - 1; v >= 0; v--) {
+			if (childStart[v] == childStart[v + 1])
+				leaves[v] = v == 0 ? 0 : 1;
+			for (int c = childStart[v]; c < childStart[v + 1]; c++)
+				leaves[v] += leaves[c];
+		}
+		int[] leafStart = new int[n];
+		int[] leafWord = new int[leaves[0]];
+		for (int v = 0; v < n; v++) {
+			int next = leafStart[v];
+			for (int c = childStart[v]; c < childStart[v + 1]; c++) {
+				leafStart[c] = next;
+				next += leaves[c];
+			}
+			if (v != 0 && childStart[v] == childStart[v + 1])
+				leafWord[leafStart[v]] = nodes[v].substr.wordIndex;
+		}
+		return new PackedTrie(allWords, Arrays.copyOf(childStart, n + 1), end, firstChar, leafStart, leafWord);
+	}
+
+	/**
+	 * Builds a packed trie straight from the words, without building a TrieNode trie first.
+	 * As with Trie.buildTrie, no word may be a prefix of another, and so no word may be empty
+	 * or appear twice.
+	 *
+	 * @param allWords Words to put in the trie
+	 * @return Packed trie
+	 * @throws IllegalArgumentException If a word is empty, appears more than once, or is a
+	 *         prefix of another
+	 */
+	public static PackedTrie build(final String[] allWords) {
+		for (String word : allWords)
+			if (word.length() == 0)
+				throw new IllegalArgumentException("Empty word");
+		Integer[] boxed = new Integer[allWords.length];
+		for (int i = 0; i < boxed.length; i++)
+			boxed[i] = i;
+		Arrays.sort(boxed, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return allWords[a].compareTo(allWords[b]);
+			}
+		});
+		int[] sorted = new int[boxed.length];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = boxed[i];
+			if (i > 0 && allWords[sorted[i]].equals(allWords[sorted[i - 1]]))
+				throw new IllegalArgumentException("Duplicate word \"" + allWords[sorted[i]] + "\"");
+		}
+
+		// each node is a range lo .. hi-1 of the sorted words; a node's children split
+		// its range by the character one past its end
+		int cap = Math.max(2 * allWords.length, 1);
+		int[] lo = new int[cap], hi = new int[cap], end = new int[cap];
+		char[] firstChar = new char[cap];
+		int[] childStart = new int[cap + 1];
+		int n = 1;
+		end[0] = -1;
+		hi[0] = sorted.length;
+		for (int v = 0; v < n; v++) {
+			childStart[v] = n;
+			if (lo[v] == hi[v])
+				continue;	// root of an empty trie
+			if (v != 0) {
+				String first = allWords[sorted[lo[v]]];
+				if (hi[v] - lo[v] == 1) {
+					end[v] = first.length() - 1;
+					continue;
+				}
+				// the first and last words of a sorted range share the prefix of all of them
+				String last = allWords[sorted[hi[v] - 1]];
+				end[v] = commonPrefix(first, last) - 1;
+				if (end[v] == first.length() - 1)
+					throw new IllegalArgumentException("\"" + first + "\" is a prefix of another word");
+			}
+			int pos = end[v] + 1;
+			for (int i = lo[v]; i < hi[v]; ) {
+				char c = allWords[sorted[i]].charAt(pos);
+				int j = i + 1;
+				while (j < hi[v] && allWords[sorted[j]].charAt(pos) == c)
+					j++;
+				lo[n] = i;
+				hi[n] = j;
+				firstChar[n] = c;
+				n++;
+				i = j;
+			}
+		}
+		childStart[n] = n;
+		return new PackedTrie(allWords, Arrays.copyOf(childStart, n + 1), Arrays.copyOf(end, n),
+				Arrays.copyOf(firstChar, n), Arrays.copyOf(lo, n), sorted);
+	}
+
+	private static int commonPrefix(String a, String b) {
+		int len = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < len && a.charAt(i) == b.charAt(i))
+			i++;
+		return i;
+	}
+
+	/**
+	 * @return Number of words
+	 */
+	public int size() {
+		return leafWord.length;
+	}
+
+	/**
+	 * @return Number of nodes, including the root
+	 */
+	public int nodes() {
+		return end.length;
+	}
+
+	/**
+	 * Returns the words that start with a prefix, as Trie.completionList does.
+	 *
+	 * @param prefix Prefix to be completed with words in trie
+	 * @return Indexes in allWords of all words that start with the prefix, in sorted order of
+	 *         the words. If there is no word in the trie that has this prefix, null is returned.
+	 */
+	public int[] completionList(String prefix) {
+		if (leafWord.length == 0)
+			return null;
+		int v = 0, lo = 0, hi = leafWord.length;
+		int pos = 0;
+		while (pos < prefix.length()) {
+			int from = childStart[v], to = childStart[v + 1];
+			int c = child(from, to, prefix.charAt(pos));
+			if (c == -1)
+				return null;
+			lo = leafStart[c];
+			hi = c + 1 < to ? leafStart[c + 1] : hi;
+			String word = allWords[leafWord[lo]];
+			int e = Math.min(end[c], prefix.length() - 1);
+			for (int i = pos + 1; i <= e; i++)
+				if (word.charAt(i) != prefix.charAt(i))
+					return null;
+			pos = end[c] + 1;
+			v = c;
+		}
+		return Arrays.copyOfRange(leafWord, lo, hi);
+	}
+
+	/**
+	 * Binary search of children from .. to-1 by first character
+	 *
+	 * @return The child starting with ch, -1 if there is none
+	 */
+	private int child(int from, int to, char ch) {
+		int low = from, high = to - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (firstChar[mid] < ch)
+				low = mid + 1;
+			else if (firstChar[mid] > ch)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,126 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * A keyword's occurrences, kept in DESCENDING order of frequency like an Occurrence list, but
+ * stored as two parallel int arrays of document ids (indexes into the engine's document table)
+ * and frequencies. This takes 8 bytes per occurrence instead of an Occurrence object plus
+ * a list slot, and keeps a list walk to two sequential array reads.
+ */
+class PostingList {
+
+	private int[] docs;
+	private int[] freqs;
+	private int size;
+
+	/**
+	 * @param capacity Number of occurrences to make room for
+	 */
+	PostingList(int capacity) {
+		docs = new int[Math.max(capacity, 1)];
+		freqs = new int[docs.length];
+	}
+
+	/**
+	 * @return Number of occurrences in the list
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param i Position in the list
+	 * @return Document id of the i-th occurrence
+	 */
+	int doc(int i) {
+		return docs[i];
+	}
+
+	/**
+	 * @param i Position in the list
+	 * @return Frequency of the i-th occurrence
+	 */
+	int freq(int i) {
+		return freqs[i];
+	}
+
+	/**
+	 * Appends an occurrence to the end of the list, without restoring the frequency order.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency of the keyword in the document
+	 */
+	void add(int doc, int freq) {
+		if (size == docs.length) {
+			int capacity = size + (size >> 1) + 1;
+			docs = Arrays.copyOf(docs, capacity);
+			freqs = Arrays.copyOf(freqs, capacity);
+		}
+		docs[size] = doc;
+		freqs[size] = freq;
+		size++;
+	}
+
+	/**
+	 * Moves the last occurrence to its place in descending order of frequency, finding the spot
+	 * with exactly the same binary search as LittleSearchEngine.insertLastOccurrence, so that
+	 * ties are placed the same way.
+	 */
+	void insertLast() {
+		if (size <= 1)
+			return;
+		int doc = docs[size-1];
+		int occFreq = freqs[size-1];
+		int start = 0;
+		int end = size-2;
+		int mid = 0;
+		int midFreq = 0;
+		while (start <= end) {
+			mid = (start+end)/2;
+			midFreq = freqs[mid];
+			if (midFreq == occFreq)
+				break;
+			else if (midFreq > occFreq)
+				start = mid + 1;
+			else
+				end = mid - 1;
+		}
+		int at = midFreq >= occFreq ? mid+1 : mid;
+		System.arraycopy(docs, at, docs, at+1, size-1-at);
+		System.arraycopy(freqs, at, freqs, at+1, size-1-at);
+		docs[at] = doc;
+		freqs[at] = occFreq;
+	}
+
+	/**
+	 * Removes the occurrences of the given documents, keeping the rest in order.
+	 *
+	 * @param removed Ids of the documents to remove
+	 * @return True if any occurrence was removed
+	 */
+	boolean removeAll(BitSet removed) {
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			if (!removed.get(docs[i])) {
+				docs[j] = docs[i];
+				freqs[j] = freqs[i];
+				j++;
+			}
+		}
+		boolean changed = j < size;
+		size = j;
+		return changed;
+	}
+
+	/**
+	 * @param documentNames Names of the documents, in id order
+	 * @return The list as Occurrence objects
+	 */
+	ArrayList<Occurrence> toOccurrences(List<String> documentNames) {
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(size);
+		for (int i = 0; i < size; i++)
+			occs.add(new Occurrence(documentNames.get(docs[i]), freqs[i]));
+		return occs;
+	}
+}
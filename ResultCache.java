@@ -0,0 +1,194 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * Bounded cache of search results, keyed by normalized query. Entries are evicted in least
+ * recently used order. With the TINY_LFU policy, a new entry is also only admitted when full if
+ * its query has been asked for more often, recently, than the query it would evict; query
+ * frequencies are estimated with a count-min sketch that is halved periodically so that
+ * old popularity fades.
+ *
+ * Every entry records the keywords its query touches, so that all entries depending on a
+ * keyword can be dropped when that keyword's Occurrence list changes.
+ */
+public class ResultCache {
+
+	/**
+	 * Eviction and admission policy
+	 */
+	public enum Policy {
+		/**
+		 * Always admit, evict the least recently used entry
+		 */
+		LRU,
+		/**
+		 * Admit only queries more frequent than the least recently used entry, which is evicted
+		 */
+		TINY_LFU
+	}
+
+	private static class Entry {
+		ArrayList<String> result;
+		String[] keywords;
+	}
+
+	private final int capacity;
+	private final LinkedHashMap<String,Entry> entries;
+	private final HashMap<String,HashSet<String>> keysByKeyword;
+
+	// count-min sketch of query frequencies, for TINY_LFU
+	private final int[][] sketch;
+	private final int sketchMask;
+	private int sketchAdds;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param capacity Maximum number of cached results
+	 * @param policy Eviction and admission policy
+	 */
+	public ResultCache(int capacity, Policy policy) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1");
+		this.capacity = capacity;
+		entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+		keysByKeyword = new HashMap<String,HashSet<String>>();
+		int width = Integer.highestOneBit(Math.max(16, capacity * 8) - 1) << 1;
+		sketch = policy == Policy.TINY_LFU ? new int[4][width] : null;
+		sketchMask = width - 1;
+	}
+
+	/**
+	 * Looks up the cached result of a query, and counts a hit or a miss.
+	 *
+	 * @param key Normalized query
+	 * @return The cached result, or null if the query is not cached
+	 */
+	synchronized ArrayList<String> get(String key) {
+		if (sketch != null)
+			record(key);
+		Entry e = entries.get(key);
+		if (e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return e.result;
+	}
+
+	/**
+	 * Caches the result of a query, evicting the least recently used entry if the cache is full.
+	 * With TINY_LFU, the result is not cached at all if the query is less frequent than the one
+	 * that would be evicted.
+	 *
+	 * @param key Normalized query
+	 * @param keywords Keywords whose Occurrence lists the result depends on
+	 * @param result Result of the query
+	 */
+	synchronized void put(String key, Collection<String> keywords, ArrayList<String> result) {
+		if (!entries.containsKey(key) && entries.size() >= capacity) {
+			String victim = entries.keySet().iterator().next();
+			if (sketch != null && estimate(key) <= estimate(victim))
+				return;
+			remove(victim);
+		}
+		remove(key);
+		Entry e = new Entry();
+		e.result = result;
+		e.keywords = keywords.toArray(new String[keywords.size()]);
+		entries.put(key, e);
+		for (String kw : e.keywords) {
+			HashSet<String> keys = keysByKeyword.get(kw);
+			if (keys == null) {
+				keys = new HashSet<String>();
+				keysByKeyword.put(kw, keys);
+			}
+			keys.add(key);
+		}
+	}
+
+	/**
+	 * Drops all cached results that depend on a keyword.
+	 *
+	 * @param keyword Keyword whose Occurrence list has changed
+	 */
+	synchronized void invalidate(String keyword) {
+		HashSet<String> keys = keysByKeyword.get(keyword);
+		if (keys == null)
+			return;
+		for (String key : new ArrayList<String>(keys))
+			remove(key);
+	}
+
+	/**
+	 * Drops all cached results.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		keysByKeyword.clear();
+	}
+
+	/**
+	 * @return Number of lookups that found a cached result
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return Number of lookups that did not find a cached result
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * @return Number of cached results
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private void remove(String key) {
+		Entry e = entries.remove(key);
+		if (e == null)
+			return;
+		for (String kw : e.keywords) {
+			HashSet<String> keys = keysByKeyword.get(kw);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty())
+					keysByKeyword.remove(kw);
+			}
+		}
+	}
+
+	private void record(String key) {
+		int h = key.hashCode();
+		for (int row = 0; row < sketch.length; row++)
+			sketch[row][slot(h, row)]++;
+		if (++sketchAdds == sketch[0].length * 2) {
+			// age all counts, so that the sketch follows recent popularity
+			for (int[] counts : sketch) {
+				for (int i = 0; i < counts.length; i++)
+					counts[i] >>>= 1;
+			}
+			sketchAdds = 0;
+		}
+	}
+
+	private int estimate(String key) {
+		int h = key.hashCode();
+		int min = Integer.MAX_VALUE;
+		for (int row = 0; row < sketch.length; row++)
+			min = Math.min(min, sketch[row][slot(h, row)]);
+		return min;
+	}
+
+	private int slot(int h, int row) {
+		h *= 0x9e3779b1 + row * 0x3c6ef372;
+		return (h ^ (h >>> 16)) & sketchMask;
+	}
+}
@@ -0,0 +1,236 @@
+package friends;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The cliques of every school in a graph, found together in one pass. A clique is a
+ * connected component of the subgraph of students of one school, so all of them are found
+ * with a single union-find over the friendships between students of the same school. The
+ * edges are split across threads; roots are linked with compare-and-set, always under the
+ * smaller member index, so the threads need no locks and every root is the smallest member
+ * of its clique.
+ *
+ * The result is kept in CSR form: the cliques of school s are cliques
+ * schoolStart[s] .. schoolStart[s+1]-1, and the members of clique c are
+ * members[cliqueStart[c]] .. members[cliqueStart[c+1]-1]. Cliques of a school are in order of
+ * their smallest member index, and members of a clique in member index order.
+ */
+public class SchoolComponents {
+
+	/**
+	 * Graphs with fewer edges than this are done on the calling thread
+	 */
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	final FriendGraph graph;
+
+	/**
+	 * First clique of each school, with schoolStart[schools] == number of cliques
+	 */
+	final int[] schoolStart;
+
+	/**
+	 * Start of each clique's members in members, with cliqueStart[cliques] == members.length
+	 */
+	final int[] cliqueStart;
+
+	/**
+	 * Member indexes of all students, grouped by clique
+	 */
+	final int[] members;
+
+	/**
+	 * Clique of each member, -1 if the member is not a student
+	 */
+	final int[] clique;
+
+	/**
+	 * Finds the cliques of all schools, with one thread per core.
+	 *
+	 * @param g Graph
+	 */
+	public SchoolComponents(FriendGraph g) {
+		this(g, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Finds the cliques of all schools.
+	 *
+	 * @param g Graph
+	 * @param threads Number of threads to link friendships with
+	 */
+	public SchoolComponents(FriendGraph g, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be at least 1");
+		graph = g;
+		int n = g.size();
+		AtomicIntegerArray parent = new AtomicIntegerArray(n);
+		for (int v = 0; v < n; v++)
+			parent.set(v, v);
+
+		if (threads == 1 || g.firstFriend(g.size()) < PARALLEL_THRESHOLD)
+			link(g, parent, 0, n);
+		else {
+			// split the members into ranges holding about the same number of friendships
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				ArrayList<Future<?>> parts = new ArrayList<Future<?>>(threads);
+				int from = 0;
+				for (int t = 1; t <= threads; t++) {
+					int to = from;
+					long target = (long) g.firstFriend(g.size()) * t / threads;
+					while (to < n && g.firstFriend(to) < target)
+						to++;
+					if (t == threads)
+						to = n;
+					final int lo = from, hi = to;
+					parts.add(pool.submit(new Runnable() {
+						public void run() {
+							link(g, parent, lo, hi);
+						}
+					}));
+					from = to;
+				}
+				for (Future<?> f : parts)
+					await(f);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		// roots are cliques; number them by school, then by smallest member
+		int schools = g.schoolCount();
+		schoolStart = new int[schools + 1];
+		clique = new int[n];
+		for (int v = 0; v < n; v++) {
+			if (g.school(v) != -1 && parent.get(v) == v)
+				schoolStart[g.school(v) + 1]++;
+		}
+		for (int s = 0; s < schools; s++)
+			schoolStart[s + 1] += schoolStart[s];
+		int[] nextClique = Arrays.copyOf(schoolStart, schools);
+		int students = 0;
+		for (int v = 0; v < n; v++) {
+			if (g.school(v) == -1)
+				clique[v] = -1;
+			else {
+				students++;
+				// roots come before their members, so the root's clique is already numbered
+				clique[v] = parent.get(v) == v ? nextClique[g.school(v)]++ : clique[find(parent, v)];
+			}
+		}
+
+		int cliques = schoolStart[schools];
+		cliqueStart = new int[cliques + 1];
+		for (int v = 0; v < n; v++) {
+			if (clique[v] != -1)
+				cliqueStart[clique[v] + 1]++;
+		}
+		for (int c = 0; c < cliques; c++)
+			cliqueStart[c + 1] += cliqueStart[c];
+		members = new int[students];
+		int[] next = Arrays.copyOf(cliqueStart, cliques);
+		for (int v = 0; v < n; v++) {
+			if (clique[v] != -1)
+				members[next[clique[v]]++] = v;
+		}
+	}
+
+	/**
+	 * Links the two friends of every same-school friendship of members lo .. hi-1.
+	 */
+	private static void link(FriendGraph g, AtomicIntegerArray parent, int lo, int hi) {
+		for (int u = lo; u < hi; u++) {
+			int s = g.school(u);
+			if (s == -1)
+				continue;
+			for (int e = g.firstFriend(u), end = g.firstFriend(u+1); e < end; e++) {
+				int v = g.friend(e);
+				if (v > u && g.school(v) == s)
+					union(parent, u, v);
+			}
+		}
+	}
+
+	private static void union(AtomicIntegerArray parent, int a, int b) {
+		while (true) {
+			a = find(parent, a);
+			b = find(parent, b);
+			if (a == b)
+				return;
+			if (a < b) {
+				int t = a;
+				a = b;
+				b = t;
+			}
+			// the larger root goes under the smaller one, unless another thread got to it first
+			if (parent.compareAndSet(a, a, b))
+				return;
+		}
+	}
+
+	private static int find(AtomicIntegerArray parent, int v) {
+		int p;
+		while ((p = parent.get(v)) != v) {
+			int gp = parent.get(p);
+			// path halving; losing the race only means the path stays a little longer
+			parent.compareAndSet(v, p, gp);
+			v = gp;
+		}
+		return v;
+	}
+
+	private static void await(Future<?> f) {
+		try {
+			f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while finding cliques", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Returns the cliques of students in a school.
+	 *
+	 * @param school Name of school
+	 * @return Array list of clique array lists. Empty array list if there is no student in the
+	 *         given school
+	 */
+	public ArrayList<ArrayList<String>> cliques(String school) {
+		int s = graph.schoolId(school.toLowerCase());
+		if (s == -1)
+			return new ArrayList<ArrayList<String>>();
+		ArrayList<ArrayList<String>> cliqs = new ArrayList<ArrayList<String>>(schoolStart[s+1] - schoolStart[s]);
+		for (int c = schoolStart[s]; c < schoolStart[s+1]; c++) {
+			ArrayList<String> temp = new ArrayList<String>(cliqueStart[c+1] - cliqueStart[c]);
+			for (int i = cliqueStart[c]; i < cliqueStart[c+1]; i++)
+				temp.add(graph.name(members[i]));
+			cliqs.add(temp);
+		}
+		return cliqs;
+	}
+
+	/**
+	 * @param school Name of school
+	 * @return Number of cliques in the school, 0 if there is no student in the given school
+	 */
+	public int cliqueCount(String school) {
+		int s = graph.schoolId(school.toLowerCase());
+		return s == -1 ? 0 : schoolStart[s+1] - schoolStart[s];
+	}
+
+	/**
+	 * @param v Member index
+	 * @return Number of the clique the member is in, -1 if the member is not a student
+	 */
+	public int cliqueOf(int v) {
+		return clique[v];
+	}
+}
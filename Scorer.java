@@ -0,0 +1,35 @@
+package lse;
+
+/**
+ * Relevance scoring function for rankedSearch. The score of a document for a query is the sum,
+ * over the query keywords that occur in it, of the score of each keyword in the document.
+ * 
+ * Besides scoring a single occurrence, a scorer gives an upper bound on the score of a keyword 
+ * in any document, which rankedSearch uses to skip documents that cannot make the top k.
+ */
+public interface Scorer {
+	
+	/**
+	 * Scores one keyword in one document.
+	 * 
+	 * @param frequency Frequency of the keyword in the document
+	 * @param documentLength Number of keywords in the document, counting repeats
+	 * @param documentFrequency Number of documents the keyword occurs in
+	 * @param documentCount Number of documents in the index
+	 * @param averageLength Average document length in the index
+	 * @return Score of the keyword in the document
+	 */
+	double score(int frequency, int documentLength, int documentFrequency, int documentCount, double averageLength);
+	
+	/**
+	 * Bounds the score of a keyword over all the documents it occurs in. The bound must be
+	 * at least the score of every such document, and should be as tight as possible.
+	 * 
+	 * @param maxFrequency Highest frequency of the keyword in any document
+	 * @param documentFrequency Number of documents the keyword occurs in
+	 * @param documentCount Number of documents in the index
+	 * @param averageLength Average document length in the index
+	 * @return Upper bound on the keyword's score in any document
+	 */
+	double upperBound(int maxFrequency, int documentFrequency, int documentCount, double averageLength);
+}
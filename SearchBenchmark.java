@@ -0,0 +1,261 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Benchmarks for the LittleSearchEngine hot paths, run on a synthetic corpus whose words
+ * follow a Zipf distribution. The corpus is generated from a fixed seed, so runs with the
+ * same arguments on different versions of the code measure the same work.
+ *
+ * Usage:
+ * <pre>
+ *     java lse.SearchBenchmark [docs [wordsPerDoc [vocabulary [zipfExponent [seed]]]]]
+ * </pre>
+ * Defaults are 2000 documents of 2000 words, a vocabulary of 50000 words, exponent 1.0 and seed 42.
+ * The 20 most frequent words are used as noise words. Each benchmark is run for a number of
+ * warmup rounds before it is measured, and results are printed one per line as
+ * "benchmark, value, unit".
+ *
+ * Benchmarks:
+ * <pre>
+ *     tokenize         loadKeywordsFromDocument throughput over the whole corpus
+ *     getKeyword       getKeyword throughput over the words of the corpus
+ *     makeIndex        serial index build time per MB of corpus
+ *     makeIndexN       parallel index build time per MB, with N threads (one per core)
+ *     mergeHighDf      mergeKeywords time for a document holding the 50 most frequent keywords
+ *     top5search       latency percentiles for two-keyword searches
+ *     topKSearch       latency percentiles for 10-keyword, k = 100 searches
+ * </pre>
+ */
+public class SearchBenchmark {
+
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int ROUNDS = 5;
+	private static final int NOISE_WORDS = 20;
+	private static final int QUERIES = 20000;
+
+	/**
+	 * Results of benchmarked calls are stored here, so the JIT cannot drop the calls
+	 */
+	static volatile int sink;
+
+	private final Random rand;
+	private final String[] vocabulary;
+	private final double[] cdf;
+	private final File dir;
+	private final String docsFile;
+	private final String noiseFile;
+	private final ArrayList<String> docs = new ArrayList<String>();
+	private long corpusBytes;
+
+	private SearchBenchmark(int docCount, int wordsPerDoc, int vocabSize, double exponent, long seed)
+	throws IOException {
+		rand = new Random(seed);
+		vocabulary = new String[vocabSize];
+		HashSet<String> seen = new HashSet<String>();
+		for (int i = 0; i < vocabSize; i++) {
+			String w;
+			do {
+				w = randomWord();
+			} while (!seen.add(w));
+			vocabulary[i] = w;
+		}
+		cdf = new double[vocabSize];
+		double sum = 0;
+		for (int i = 0; i < vocabSize; i++) {
+			sum += 1.0 / Math.pow(i + 1, exponent);
+			cdf[i] = sum;
+		}
+		for (int i = 0; i < vocabSize; i++)
+			cdf[i] /= sum;
+
+		dir = new File(System.getProperty("java.io.tmpdir"), "lse-bench-" + docCount + "-" + wordsPerDoc + "-"
+				+ vocabSize + "-" + exponent + "-" + seed);
+		dir.mkdirs();
+		docsFile = new File(dir, "docs.txt").getPath();
+		noiseFile = new File(dir, "noisewords.txt").getPath();
+
+		PrintWriter pw = new PrintWriter(new FileWriter(noiseFile));
+		for (int i = 0; i < NOISE_WORDS && i < vocabSize; i++)
+			pw.println(vocabulary[i]);
+		pw.close();
+
+		String[] punct = { ".", ",", "?", ":", ";", "!", "!?" };
+		PrintWriter list = new PrintWriter(new FileWriter(docsFile));
+		for (int d = 0; d < docCount; d++) {
+			File f = new File(dir, "doc" + d + ".txt");
+			list.println(f.getPath());
+			docs.add(f.getPath());
+			BufferedWriter bw = new BufferedWriter(new FileWriter(f));
+			for (int i = 0; i < wordsPerDoc; i++) {
+				String w = vocabulary[zipf()];
+				int r = rand.nextInt(20);
+				if (r == 0)
+					w = Character.toUpperCase(w.charAt(0)) + w.substring(1);
+				else if (r == 1)
+					w = w + punct[rand.nextInt(punct.length)];
+				bw.write(w);
+				bw.write(i % 12 == 11 ? '\n' : ' ');
+			}
+			bw.close();
+			corpusBytes += f.length();
+		}
+		list.close();
+	}
+
+	private String randomWord() {
+		int len = 3 + rand.nextInt(8);
+		char[] c = new char[len];
+		for (int i = 0; i < len; i++)
+			c[i] = (char) ('a' + rand.nextInt(26));
+		return new String(c);
+	}
+
+	private int zipf() {
+		int i = Arrays.binarySearch(cdf, rand.nextDouble());
+		return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+	}
+
+	/**
+	 * A keyword drawn from the Zipf distribution, skipping noise words.
+	 */
+	private String keyword() {
+		int i;
+		do {
+			i = zipf();
+		} while (i < NOISE_WORDS);
+		return vocabulary[i];
+	}
+
+	private static void report(String name, double value, String unit) {
+		System.out.printf("%s, %.3f, %s%n", name, value, unit);
+	}
+
+	private static double median(double[] values) {
+		double[] v = values.clone();
+		Arrays.sort(v);
+		return v[v.length / 2];
+	}
+
+	private void tokenize() throws IOException {
+		LittleSearchEngine lse = new LittleSearchEngine();
+		double[] rates = new double[ROUNDS];
+		for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (String doc : docs)
+				sink = lse.loadKeywordsFromDocument(doc).size();
+			long time = System.nanoTime() - start;
+			if (round >= 0)
+				rates[round] = corpusBytes / 1e6 / (time / 1e9);
+		}
+		report("tokenize", median(rates), "MB/s");
+
+		ArrayList<String> words = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docs.get(0)));
+		while (sc.hasNext())
+			words.add(sc.next());
+		sc.close();
+		for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			int n = 0;
+			for (int rep = 0; rep < 200; rep++) {
+				for (String w : words) {
+					if (lse.getKeyword(w) != null)
+						n++;
+				}
+			}
+			long time = System.nanoTime() - start;
+			if (round >= 0)
+				rates[round] = words.size() * 200 / (time / 1e9) / 1e6;
+			sink = n;
+		}
+		report("getKeyword", median(rates), "Mwords/s");
+	}
+
+	private LittleSearchEngine build(int threads) throws IOException {
+		double[] times = new double[ROUNDS];
+		LittleSearchEngine lse = null;
+		for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+			lse = new LittleSearchEngine();
+			long start = System.nanoTime();
+			if (threads == 0)
+				lse.makeIndex(docsFile, noiseFile);
+			else
+				lse.makeIndex(docsFile, noiseFile, threads);
+			long time = System.nanoTime() - start;
+			if (round >= 0)
+				times[round] = time / 1e6 / (corpusBytes / 1e6);
+		}
+		report(threads == 0 ? "makeIndex" : "makeIndex" + threads, median(times), "ms/MB");
+		return lse;
+	}
+
+	private void mergeHighDf(LittleSearchEngine lse) {
+		int merges = 200;
+		double[] times = new double[ROUNDS];
+		int doc = 0;
+		for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int m = 0; m < merges; m++) {
+				String name = "bench-merge-" + doc++;
+				HashMap<String,Occurrence> kws = new HashMap<String,Occurrence>();
+				for (int i = NOISE_WORDS; i < NOISE_WORDS + 50 && i < vocabulary.length; i++)
+					kws.put(vocabulary[i], new Occurrence(name, 1 + rand.nextInt(50)));
+				lse.mergeKeywords(kws);
+			}
+			long time = System.nanoTime() - start;
+			if (round >= 0)
+				times[round] = time / 1e3 / merges;
+		}
+		report("mergeHighDf", median(times), "us/merge");
+	}
+
+	private void search(LittleSearchEngine lse, String name, int keywords, int k) {
+		ArrayList<List<String>> queries = new ArrayList<List<String>>(QUERIES);
+		for (int q = 0; q < QUERIES; q++) {
+			ArrayList<String> query = new ArrayList<String>(keywords);
+			for (int i = 0; i < keywords; i++)
+				query.add(keyword());
+			queries.add(query);
+		}
+		long[] latencies = new long[QUERIES];
+		for (int round = -WARMUP_ROUNDS; round <= 0; round++) {
+			for (int q = 0; q < QUERIES; q++) {
+				List<String> query = queries.get(q);
+				long start = System.nanoTime();
+				ArrayList<String> result;
+				if (keywords == 2 && k == 5)
+					result = lse.top5search(query.get(0), query.get(1));
+				else
+					result = lse.topKSearch(query, k);
+				latencies[q] = System.nanoTime() - start;
+				sink = result == null ? 0 : result.size();
+			}
+		}
+		Arrays.sort(latencies);
+		report(name + ".p50", latencies[QUERIES / 2] / 1e3, "us");
+		report(name + ".p90", latencies[QUERIES * 9 / 10] / 1e3, "us");
+		report(name + ".p99", latencies[QUERIES * 99 / 100] / 1e3, "us");
+		report(name + ".max", latencies[QUERIES - 1] / 1e3, "us");
+	}
+
+	public static void main(String[] args) throws IOException {
+		int docCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int wordsPerDoc = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int vocabSize = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+		double exponent = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+		if (vocabSize <= NOISE_WORDS)
+			throw new IllegalArgumentException("vocabulary must be larger than " + NOISE_WORDS);
+
+		SearchBenchmark bench = new SearchBenchmark(docCount, wordsPerDoc, vocabSize, exponent, seed);
+		report("corpus", bench.corpusBytes / 1e6, "MB");
+		bench.tokenize();
+		LittleSearchEngine lse = bench.build(0);
+		bench.build(Runtime.getRuntime().availableProcessors());
+		bench.search(lse, "top5search", 2, 5);
+		bench.search(lse, "topKSearch", 10, 100);
+		bench.mergeHighDf(lse);
+	}
+}
@@ -0,0 +1,86 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * Secondary view of a keyword's posting list, sorted by document id instead of by
+ * frequency, for intersecting and subtracting lists in boolean searches. Positions are
+ * advanced with galloping (exponential, then binary) search, so a short list can be
+ * intersected with a long one without scanning the long one.
+ */
+class SortedPostings {
+
+	/**
+	 * Document ids, in ascending order
+	 */
+	final int[] docs;
+
+	/**
+	 * Frequency of the keyword in each document of docs
+	 */
+	final int[] freqs;
+
+	/**
+	 * Highest frequency of the keyword in any document
+	 */
+	final int maxFreq;
+
+	/**
+	 * Builds the view of a posting list.
+	 *
+	 * @param occs Posting list of a keyword
+	 */
+	SortedPostings(PostingList occs) {
+		long[] packed = new long[occs.size()];
+		for (int i = 0; i < packed.length; i++)
+			packed[i] = ((long) occs.doc(i) << 32) | (occs.freq(i) & 0xffffffffL);
+		Arrays.sort(packed);
+		docs = new int[packed.length];
+		freqs = new int[packed.length];
+		int max = 0;
+		for (int i = 0; i < packed.length; i++) {
+			docs[i] = (int) (packed[i] >>> 32);
+			freqs[i] = (int) packed[i];
+			max = Math.max(max, freqs[i]);
+		}
+		maxFreq = max;
+	}
+
+	/**
+	 * @return Number of documents in the view
+	 */
+	int size() {
+		return docs.length;
+	}
+
+	/**
+	 * Finds the first position at or after from whose document id is at least target.
+	 *
+	 * @param from Position to start from
+	 * @param target Document id to look for
+	 * @return The position, or size() if every document from there on is before target
+	 */
+	int advance(int from, int target) {
+		if (from >= docs.length || docs[from] >= target)
+			return from;
+		int step = 1;
+		int lo = from;
+		int hi = from + 1;
+		while (hi < docs.length && docs[hi] < target) {
+			lo = hi;
+			step <<= 1;
+			hi = from + step;
+		}
+		if (hi > docs.length)
+			hi = docs.length;
+		// docs[lo] < target, and docs[hi] >= target or hi == size()
+		while (lo + 1 < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (docs[mid] < target)
+				lo = mid;
+			else
+				hi = mid;
+		}
+		return hi;
+	}
+}
@@ -0,0 +1,21 @@
+package lse;
+
+/**
+ * TF-IDF scoring: the keyword's frequency in the document relative to the document's length, 
+ * times the log of the inverse fraction of documents the keyword occurs in.
+ */
+public class TfIdfScorer implements Scorer {
+	
+	public double score(int frequency, int documentLength, int documentFrequency, int documentCount, double averageLength) {
+		return (double) frequency / Math.max(documentLength, 1) * idf(documentFrequency, documentCount);
+	}
+	
+	public double upperBound(int maxFrequency, int documentFrequency, int documentCount, double averageLength) {
+		// a document is at least as long as the frequency of any keyword in it
+		return idf(documentFrequency, documentCount);
+	}
+	
+	private static double idf(int documentFrequency, int documentCount) {
+		return Math.log(1.0 + (double) documentCount / documentFrequency);
+	}
+}
@@ -1,6 +1,10 @@
 package trie;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class implements a Trie. 
@@ -83,53 +87,256 @@ public class Trie {
 		return i;
 	}
 	
-	private static String checkFor(String prefix, String key) {
-		int i = 0;
-		if (prefix.charAt(0) == key.charAt(0)) {
-			while (prefix.charAt(i) == key.charAt(i)) {
-				i++;
-				if (i == prefix.length())
-					// if (i <= key.length()) 
-						return "A";
-				if (i == key.length()) 
-						return i + "";
+	/**
+	 * Builds a trie holding the same words as buildTrie, in one pass over the words in sorted
+	 * order instead of one insertion per word, using as many threads as there are processors.
+	 * See bulkBuildTrie(String[],int).
+	 * 
+	 * @param allWords Input array of words (lowercase) to be inserted.
+	 * @return Root of trie with all words inserted from the input array
+	 */
+	public static TrieNode bulkBuildTrie(String[] allWords) {
+		return bulkBuildTrie(allWords, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Builds a trie holding the same words as buildTrie, in one pass over the words in sorted
+	 * order instead of one insertion per word. The Indexes of each node refer to the original
+	 * allWords array, and internal nodes refer to the first word under them in the array, as
+	 * they do with buildTrie; but siblings are in alphabetical order of their first character
+	 * rather than in order of insertion.
+	 * 
+	 * If allWords is sorted already it is used as is; otherwise the words are bucketed by first
+	 * character, and each bucket sorted with a multikey quicksort. Either way each first
+	 * character's subtree is then built on its own, from the longest common prefix of each word
+	 * with the one before it: the new word leaves the previous word's path where they differ,
+	 * splitting the node there if needed. The buckets are shared out among the threads.
+	 * As with buildTrie, no word may be a prefix of another, and words may not be longer than
+	 * 32768 characters (see PackedTrie.build for longer words).
+	 * 
+	 * @param allWords Input array of words (lowercase) to be inserted.
+	 * @param threads Number of threads to build with
+	 * @return Root of trie with all words inserted from the input array
+	 * @throws IllegalArgumentException If a word is empty, too long, or a prefix of another
+	 */
+	public static TrieNode bulkBuildTrie(final String[] allWords, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be at least 1");
+		TrieNode root = new TrieNode(null, null, null);
+		int n = allWords.length;
+		boolean sorted = true;
+		for (int i = 0; i < n; i++) {
+			int len = allWords[i].length();
+			if (len == 0 || len - 1 > Short.MAX_VALUE)
+				throw new IllegalArgumentException("Word " + i + " has length " + len);
+			if (i > 0 && sorted && allWords[i-1].compareTo(allWords[i]) > 0)
+				sorted = false;
+		}
+		if (n == 0)
+			return root;
+		
+		// order the words by first character, and find where each first character starts
+		final int[] order = new int[n];
+		ArrayList<Integer> bucketStart = new ArrayList<Integer>();
+		if (sorted) {
+			for (int i = 0; i < n; i++) {
+				order[i] = i;
+				if (i == 0 || allWords[i].charAt(0) != allWords[i-1].charAt(0))
+					bucketStart.add(i);
+			}
+		}
+		else {
+			int[] count = new int[Character.MAX_VALUE + 2];
+			for (String word : allWords)
+				count[word.charAt(0) + 1]++;
+			for (int c = 0; c <= Character.MAX_VALUE; c++) {
+				if (count[c + 1] > 0)
+					bucketStart.add(count[c]);
+				count[c + 1] += count[c];
 			}
+			for (int i = 0; i < n; i++)
+				order[count[allWords[i].charAt(0)]++] = i;
+		}
+		bucketStart.add(n);
+		
+		final int buckets = bucketStart.size() - 1;
+		final int[] bounds = new int[buckets + 1];
+		for (int b = 0; b <= buckets; b++)
+			bounds[b] = bucketStart.get(b);
+		final TrieNode[] tops = new TrieNode[buckets];
+		final boolean presorted = sorted;
+		if (threads == 1 || n < PARALLEL_THRESHOLD) {
+			for (int b = 0; b < buckets; b++)
+				tops[b] = buildBucket(allWords, order, bounds[b], bounds[b+1], presorted);
 		}
-		return "";
+		else {
+			// hand out buckets one at a time, since their sizes vary widely
+			final AtomicInteger next = new AtomicInteger();
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				ArrayList<Future<?>> parts = new ArrayList<Future<?>>(threads);
+				for (int t = 0; t < threads; t++) {
+					parts.add(pool.submit(new Runnable() {
+						public void run() {
+							int b;
+							while ((b = next.getAndIncrement()) < buckets)
+								tops[b] = buildBucket(allWords, order, bounds[b], bounds[b+1], presorted);
+						}
+					}));
+				}
+				for (Future<?> f : parts)
+					await(f);
+			} finally {
+				pool.shutdown();
+			}
+		}
+		
+		root.firstChild = tops[0];
+		for (int b = 1; b < buckets; b++)
+			tops[b-1].sibling = tops[b];
+		return root;
 	}
 	
-	private static ArrayList<TrieNode> makeList(ArrayList<TrieNode> wordsList, String[] allWords, TrieNode root) {
-		if (root.firstChild == null)
-			return wordsList;
-		String tempStr = "";
-		String temp = "";
-		TrieNode node = root.firstChild;
-		TrieNode lastNode = root;
-		while(node.firstChild != null){
-			lastNode = node;
-			node = node.firstChild;
-			// wordsList.add(node);
-			/*
-			tempStr += allWords[node.substr.wordIndex].substring(node.substr.startIndex, node.substr.endIndex+1);
-			lastNode = node;
-			node = node.firstChild;
-			*/
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+	
+	private static void await(Future<?> f) {
+		try {
+			f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while building trie", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
 		}
-		while(node != null){
-			wordsList.add(node);
-			node = node.sibling;
-			/*
-			temp = tempStr;
-			temp += allWords[node.substr.wordIndex].substring(node.substr.startIndex, node.substr.endIndex+1);
-			wordsList.add(temp);
-			node = node.sibling;
-			*/
-		}
-		lastNode.firstChild = null;
-		return makeList(wordsList, allWords, root);
-
 	}
-
+	
+	/**
+	 * Sorts the words from .. to-1 of order if needed, and builds their subtree. The words all
+	 * have the same first character.
+	 * 
+	 * @return Top node of the subtree, which starts at index 0
+	 */
+	private static TrieNode buildBucket(String[] allWords, int[] order, int from, int to, boolean sorted) {
+		if (!sorted)
+			sort(allWords, order, from, to, 1);
+		
+		// path from the top node to the previous word's leaf
+		TrieNode[] path = new TrieNode[16];
+		int top = 0;
+		String word = allWords[order[from]];
+		path[top++] = new TrieNode(new Indexes(order[from], (short) 0, (short) (word.length()-1)), null, null);
+		for (int i = from + 1; i < to; i++) {
+			String prev = word;
+			word = allWords[order[i]];
+			int match = 1;
+			while (match < prev.length() && match < word.length() && prev.charAt(match) == word.charAt(match))
+				match++;
+			if (match == prev.length() || match == word.length())
+				throw new IllegalArgumentException("\"" + (match == prev.length() ? prev : word)
+						+ "\" is a prefix of another word");
+			
+			// nodes below the one holding index match are finished
+			while (path[top-1].substr.startIndex > match)
+				finish(path, --top);
+			TrieNode node = path[top-1];
+			TrieNode leaf = new TrieNode(new Indexes(order[i], (short) match, (short) (word.length()-1)), null, null);
+			if (node.substr.startIndex == match) {
+				finish(path, --top);
+				node.sibling = leaf;
+			}
+			else {
+				node.firstChild = new TrieNode(new Indexes(node.substr.wordIndex, (short) match, node.substr.endIndex),
+						node.firstChild, leaf);
+				node.substr.endIndex = (short) (match - 1);
+			}
+			if (top == path.length)
+				path = Arrays.copyOf(path, 2 * top);
+			path[top++] = leaf;
+		}
+		while (top > 1)
+			finish(path, --top);
+		return path[0];
+	}
+	
+	/**
+	 * Pops a finished node off the path, passing the first word under it up to its parent.
+	 */
+	private static void finish(TrieNode[] path, int top) {
+		Indexes parent = path[top-1].substr;
+		parent.wordIndex = Math.min(parent.wordIndex, path[top].substr.wordIndex);
+	}
+	
+	/**
+	 * Multikey quicksort of the words from .. to-1 of order, which are known to agree
+	 * before index depth. Uses a stack of ranges instead of recursing, since the depth
+	 * can grow with the length of the words.
+	 */
+	private static void sort(String[] allWords, int[] order, int from, int to, int depth) {
+		int[] stack = new int[48];
+		int top = 0;
+		stack[top++] = from;
+		stack[top++] = to;
+		stack[top++] = depth;
+		while (top > 0) {
+			int d = stack[--top], hi = stack[--top], lo = stack[--top];
+			if (hi - lo < 12) {
+				for (int i = lo + 1; i < hi; i++)
+					for (int j = i; j > lo && compareFrom(allWords[order[j-1]], allWords[order[j]], d) > 0; j--)
+						swap(order, j, j-1);
+				continue;
+			}
+			int a = charAt(allWords[order[lo]], d), b = charAt(allWords[order[(lo + hi) >>> 1]], d),
+					c = charAt(allWords[order[hi-1]], d);
+			int pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+			
+			// lo .. lt-1 before the pivot, lt .. i-1 equal, gt .. hi-1 after
+			int lt = lo, gt = hi, i = lo;
+			while (i < gt) {
+				int ch = charAt(allWords[order[i]], d);
+				if (ch < pivot)
+					swap(order, lt++, i++);
+				else if (ch > pivot)
+					swap(order, i, --gt);
+				else
+					i++;
+			}
+			if (top + 9 > stack.length)
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+			stack[top++] = lo;
+			stack[top++] = lt;
+			stack[top++] = d;
+			stack[top++] = gt;
+			stack[top++] = hi;
+			stack[top++] = d;
+			if (pivot >= 0) {
+				stack[top++] = lt;
+				stack[top++] = gt;
+				stack[top++] = d + 1;
+			}
+		}
+	}
+	
+	private static int charAt(String word, int d) {
+		return d < word.length() ? word.charAt(d) : -1;
+	}
+	
+	private static int compareFrom(String a, String b, int d) {
+		for (; ; d++) {
+			int ca = charAt(a, d), cb = charAt(b, d);
+			if (ca != cb || ca == -1)
+				return ca - cb;
+		}
+	}
+	
+	private static void swap(int[] order, int i, int j) {
+		int t = order[i];
+		order[i] = order[j];
+		order[j] = t;
+	}
+	
 	/**
 	 * Given a trie, returns the "completion list" for a prefix, i.e. all the leaf nodes in the 
 	 * trie whose words start with this prefix. 
@@ -140,6 +347,9 @@ public class Trie {
 	 * (The last example shows that an input prefix can be an entire word.) 
 	 * The order of returned leaf nodes DOES NOT MATTER. So, for prefix "be",
 	 * the returned list of leaf nodes can be either hold [bear,bell] or [bell,bear].
+	 * The prefix is matched in place against allWords, without making substrings, and
+	 * then only the subtree under the matched node is walked, so the time taken is
+	 * proportional to the length of the prefix plus the number of completions.
 	 *
 	 * @param root Root of Trie that stores all words to search on for completion lists
 	 * @param allWords Array of words that have been inserted into the trie
@@ -149,30 +359,75 @@ public class Trie {
 	 *         If there is no word in the tree that has this prefix, null is returned.
 	 */
 	public static ArrayList<TrieNode> completionList(TrieNode root, String[] allWords, String prefix) {
-		ArrayList<TrieNode> wordsList = new ArrayList<TrieNode>(1);
+		TrieNode node = find(root, allWords, prefix);
+		if (node == null)
+			return null;
+		return leaves(node == root ? root.firstChild : node, node == root);
+	}
+	
+	/**
+	 * Finds the highest node whose word starts with a prefix, comparing the prefix in place
+	 * against the characters of allWords each node stands for. Siblings are at the same depth
+	 * and differ in their first character, so only one sibling on each level is compared past
+	 * its first character.
+	 * 
+	 * @param root Root of trie
+	 * @param allWords Array of words that have been inserted into the trie
+	 * @param prefix Prefix to look for
+	 * @return The node, root if the prefix is empty, null if no word has the prefix
+	 */
+	private static TrieNode find(TrieNode root, String[] allWords, String prefix) {
 		if (root == null || root.firstChild == null)
-			return wordsList;
-		for (int i = 0; i < 1; i++)
-			wordsList.add(root.firstChild);
+			return null;
+		if (prefix.length() == 0)
+			return root;
 		TrieNode node = root.firstChild;
-		TrieNode temp = null;
-		TrieNode temp2 = null;
-		String tempPrefix = null;
-		String result = "";
-		if (allWords[node.substr.wordIndex].charAt(node.substr.startIndex) == prefix.charAt(0)){
-			result = checkFor(prefix, allWords[node.substr.wordIndex].substring(node.substr.startIndex, node.substr.endIndex+1));
-			if (result.contentEquals("A")) {
-				node = new TrieNode(node.substr, node.firstChild, null);
-				wordsList = makeList(wordsList, allWords, node);
-			}
-			else {
-				temp = new TrieNode(node.substr, null, null);
-				temp2 = new TrieNode(null, node.firstChild, node.sibling);
-				tempPrefix = prefix.substring(Integer.parseInt(result), prefix.length());
+		while (node != null) {
+			String word = allWords[node.substr.wordIndex];
+			int i = node.substr.startIndex;
+			if (word.charAt(i) != prefix.charAt(i)) {
+				node = node.sibling;
+				continue;
 			}
+			int end = Math.min(node.substr.endIndex, prefix.length() - 1);
+			for (i++; i <= end; i++)
+				if (word.charAt(i) != prefix.charAt(i))
+					return null;
+			if (end == prefix.length() - 1)
+				return node;
+			node = node.firstChild;
+		}
+		return null;
+	}
+	
+	/**
+	 * Collects the leaves under a node without changing the trie, using a stack of the
+	 * nodes still to visit instead of recursing.
+	 * 
+	 * @param node First node to collect from
+	 * @param siblings Whether to also collect from the siblings of node
+	 * @return Leaves under node (and its siblings, if asked for), in trie order
+	 */
+	private static ArrayList<TrieNode> leaves(TrieNode node, boolean siblings) {
+		ArrayList<TrieNode> wordsList = new ArrayList<TrieNode>();
+		if (node.firstChild == null && !siblings) {
+			wordsList.add(node);
+			return wordsList;
+		}
+		ArrayDeque<TrieNode> stack = new ArrayDeque<TrieNode>();
+		stack.push(siblings ? node : node.firstChild);
+		while (!stack.isEmpty()) {
+			TrieNode ptr = stack.pop();
+			if (ptr.sibling != null)
+				stack.push(ptr.sibling);
+			if (ptr.firstChild == null)
+				wordsList.add(ptr);
+			else
+				stack.push(ptr.firstChild);
 		}
 		return wordsList;
 	}
+	
 	public static void print(TrieNode root, String[] allWords) {
 		System.out.println("\nTRIE\n");
 		print(root, 1, allWords);
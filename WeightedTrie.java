@@ -0,0 +1,167 @@
+package trie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * A trie built by Trie.buildTrie, with a score for each word, answering top-k completion
+ * queries: the k highest scoring words that start with a prefix.
+ *
+ * Each trie node is shadowed by a node that caches the highest score in its subtree, and
+ * whose children are linked from the highest scoring to the lowest. A query finds the node
+ * for the prefix, then searches best first from it with a priority queue: popping a node
+ * pushes only its best child and its next sibling, so every pop is the best of what is left,
+ * and leaves come out highest score first. The search stops after k leaves, having popped at
+ * most k paths from the prefix node to a leaf, however many words share the prefix.
+ */
+public class WeightedTrie {
+
+	/**
+	 * Node of the trie, with the highest score under it and its children ordered by score
+	 */
+	private static class Node {
+		final TrieNode trie;
+		int best;
+		Node first;	// child with the highest score
+		Node next;	// sibling with the next highest score
+
+		Node(TrieNode trie) {
+			this.trie = trie;
+		}
+	}
+
+	/**
+	 * Higher scores first, ties broken by word index so results do not depend on queue order
+	 */
+	private static final Comparator<Node> BEST_FIRST = new Comparator<Node>() {
+		public int compare(Node a, Node b) {
+			if (a.best != b.best)
+				return a.best > b.best ? -1 : 1;
+			return Integer.compare(a.trie.substr.wordIndex, b.trie.substr.wordIndex);
+		}
+	};
+
+	final String[] allWords;
+	final int[] scores;
+	private final Node root;
+
+	/**
+	 * Builds the score ordering of a trie. The trie and the scores must not be changed
+	 * afterward.
+	 *
+	 * @param root Root of trie built by Trie.buildTrie
+	 * @param allWords Array of words that have been inserted into the trie
+	 * @param scores Score of each word, scores[i] for allWords[i]
+	 */
+	public WeightedTrie(TrieNode root, String[] allWords, int[] scores) {
+		if (scores.length != allWords.length)
+			throw new IllegalArgumentException("Need one score per word");
+		this.allWords = allWords;
+		this.scores = scores;
+
+		// breadth-first order, so that the children of each node are together
+		// and come after it; then score from the bottom up
+		ArrayList<Node> order = new ArrayList<Node>();
+		ArrayList<Integer> childStart = new ArrayList<Integer>();
+		order.add(new Node(root));
+		for (int i = 0; i < order.size(); i++) {
+			childStart.add(order.size());
+			for (TrieNode ptr = order.get(i).trie.firstChild; ptr != null; ptr = ptr.sibling)
+				order.add(new Node(ptr));
+		}
+		childStart.add(order.size());
+		for (int i = order.size() - 1; i >= 0; i--) {
+			Node node = order.get(i);
+			int from = childStart.get(i), to = childStart.get(i + 1);
+			if (from == to) {
+				node.best = node.trie.substr == null ? Integer.MIN_VALUE : scores[node.trie.substr.wordIndex];
+				continue;
+			}
+			Node[] children = order.subList(from, to).toArray(new Node[to - from]);
+			Arrays.sort(children, BEST_FIRST);
+			for (int c = 0; c < children.length - 1; c++)
+				children[c].next = children[c + 1];
+			node.first = children[0];
+			node.best = children[0].best;
+		}
+		this.root = order.get(0);
+	}
+
+	/**
+	 * @param leaf Leaf node of the trie
+	 * @return Score of the leaf's word
+	 */
+	public int score(TrieNode leaf) {
+		return scores[leaf.substr.wordIndex];
+	}
+
+	/**
+	 * Returns the k highest scoring leaf nodes whose words start with a prefix, highest score
+	 * first.
+	 *
+	 * @param prefix Prefix to be completed with words in trie
+	 * @param k Largest number of completions to return
+	 * @return Up to k leaf nodes. If there is no word in the tree that has this prefix, null
+	 *         is returned.
+	 */
+	public ArrayList<TrieNode> topKCompletions(String prefix, int k) {
+		Node node = find(prefix);
+		if (node == null)
+			return null;
+		ArrayList<TrieNode> result = new ArrayList<TrieNode>(Math.min(k, 64));
+		if (k <= 0)
+			return result;
+		if (node.first == null) {
+			result.add(node.trie);
+			return result;
+		}
+		PriorityQueue<Node> queue = new PriorityQueue<Node>(16, BEST_FIRST);
+		queue.add(node.first);
+		while (!queue.isEmpty()) {
+			Node ptr = queue.poll();
+			if (ptr.next != null)
+				queue.add(ptr.next);
+			if (ptr.first != null)
+				queue.add(ptr.first);
+			else {
+				result.add(ptr.trie);
+				if (result.size() == k)
+					break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the highest node whose word starts with a prefix, as Trie.completionList does.
+	 *
+	 * @param prefix Prefix to look for
+	 * @return The node, the root if the prefix is empty, null if no word has the prefix
+	 */
+	private Node find(String prefix) {
+		if (root.first == null)
+			return null;
+		if (prefix.length() == 0)
+			return root;
+		Node node = root.first;
+		while (node != null) {
+			Indexes substr = node.trie.substr;
+			String word = allWords[substr.wordIndex];
+			int i = substr.startIndex;
+			if (word.charAt(i) != prefix.charAt(i)) {
+				node = node.next;
+				continue;
+			}
+			int end = Math.min(substr.endIndex, prefix.length() - 1);
+			for (i++; i <= end; i++)
+				if (word.charAt(i) != prefix.charAt(i))
+					return null;
+			if (end == prefix.length() - 1)
+				return node;
+			node = node.first;
+		}
+		return null;
+	}
+}